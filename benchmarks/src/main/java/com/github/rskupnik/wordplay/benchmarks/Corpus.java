@@ -0,0 +1,170 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.benchmarks;
+
+import com.github.rskupnik.wordplay.WordplayContext;
+
+/**
+ * Synthetic scripts, each of them stressing a different part of the engine.
+ * Every script comes with a context that makes it render without errors.
+ */
+public enum Corpus {
+
+    /**
+     * Ternary and matching expressions nested in each other, many levels deep.
+     */
+    DEEP_NESTING {
+        @Override
+        public String script() {
+            StringBuilder sb = new StringBuilder();
+            for (int line = 0; line < 20; line++) {
+                sb.append("Line ").append(line).append(": ");
+                for (int depth = 0; depth < 40; depth++) {
+                    if (depth % 2 == 0)
+                        sb.append("{flag_").append(depth).append(" ? yes").append(depth).append(' ');
+                    else
+                        sb.append("{color:blue blue").append(depth).append(' ');
+                }
+                for (int depth = 39; depth >= 0; depth--) {
+                    if (depth % 2 == 0)
+                        sb.append("| no").append(depth).append('}');
+                    else
+                        sb.append("|:red red | grey}");
+                }
+                sb.append(".\n");
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public WordplayContext context() {
+            WordplayContext context = new WordplayContext().setVariable("color", "blue");
+            for (int depth = 0; depth < 40; depth++)
+                context.setVariable("flag_" + depth, true);
+            return context;
+        }
+    },
+
+    /**
+     * Lots of internal and external injections, some of them nested.
+     */
+    MANY_INJECTIONS {
+        @Override
+        public String script() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                sb.append("The {> internal_").append(i % 50).append("} met the {> external_").append(i % 50).append("}. ");
+                if (i % 10 == 9)
+                    sb.append('\n');
+            }
+            sb.append("\n$\n");
+            for (int i = 0; i < 50; i++)
+                sb.append("> internal_").append(i).append(" {> adjective_").append(i % 5).append("} knight ").append(i).append('\n');
+            return sb.toString();
+        }
+
+        @Override
+        public WordplayContext context() {
+            WordplayContext context = new WordplayContext();
+            for (int i = 0; i < 50; i++)
+                context.inject("external_" + i, "dragon number " + i);
+            for (int i = 0; i < 5; i++)
+                context.inject("adjective_" + i, "brave");
+            return context;
+        }
+    },
+
+    /**
+     * Matching expressions with a couple hundred options each.
+     */
+    LARGE_MATCHING {
+        @Override
+        public String script() {
+            StringBuilder sb = new StringBuilder();
+            for (int expression = 0; expression < 20; expression++) {
+                sb.append("Expression ").append(expression).append(" says {value:v0 option 0 ");
+                for (int option = 1; option < 200; option++)
+                    sb.append("|:v").append(option).append(" option ").append(option).append(' ');
+                sb.append("| nothing}.\n");
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public WordplayContext context() {
+            return new WordplayContext().setVariable("value", "v199");
+        }
+    },
+
+    /**
+     * Text with an anchored object every few words.
+     */
+    MANY_ANCHORED {
+        @Override
+        public String script() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                sb.append("The {< id:").append(i).append("|type:item|color:blue item ").append(i).append("} lies here. ");
+                if (i % 10 == 9)
+                    sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public WordplayContext context() {
+            return new WordplayContext();
+        }
+    },
+
+    /**
+     * A long script with \r\n line endings, a code section and a header section.
+     */
+    LONG_CRLF {
+        @Override
+        public String script() {
+            StringBuilder sb = new StringBuilder();
+            for (int line = 0; line < 2000; line++) {
+                sb.append("It was a {weather_sunny ? sunny | rainy} day and {> guard} stood by the ")
+                        .append("{color:brown brown |:blue blue | black} {< tint:blue wall} number ")
+                        .append(line).append('.').append("\r\n");
+            }
+            sb.append("$\r\n");
+            sb.append("> guard {weather_sunny ? a tired | a wet} guard\r\n");
+            for (int i = 0; i < 100; i++) {
+                sb.append("<l mobs_").append(i).append(" Dreadful Vampire|Fearful Wolf|Angry Goblin\r\n");
+                sb.append("<m params_").append(i).append(" fighting_allowed:true|escape_allowed:false|level:").append(i).append("\r\n");
+            }
+            sb.append("!$\r\n");
+            for (int i = 0; i < 100; i++)
+                sb.append("header_").append(i).append(" value ").append(i).append("\r\n");
+            return sb.toString();
+        }
+
+        @Override
+        public WordplayContext context() {
+            return new WordplayContext()
+                    .setVariable("weather_sunny", true)
+                    .setVariable("color", "blue");
+        }
+    };
+
+    public abstract String script();
+
+    public abstract WordplayContext context();
+}
@@ -0,0 +1,91 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.benchmarks;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.Wordplay;
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.WordplayImpl;
+import com.github.rskupnik.wordplay.cache.ScriptCache;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.output.AnchoredObject;
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the engine end to end, the way it's used by callers.
+ * Run with -prof gc to get the allocation rate as well.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    private final Wordplay wordplay = new WordplayImpl();
+    private final Wordplay cachingWordplay = new WordplayImpl(new ScriptCache(16));
+
+    private String script;
+    private CompiledScript compiledScript;
+    private WordplayContext context;
+    private StringBuilder sink;
+
+    @Setup
+    public void setup() throws WordplayException {
+        script = corpus.script();
+        compiledScript = wordplay.compile(script);
+        context = corpus.context();
+        sink = new StringBuilder(script.length());
+    }
+
+    /**
+     * Parses and renders on every call.
+     */
+    @Benchmark
+    public WordplayOutput process() throws WordplayException {
+        return wordplay.process(script, context);
+    }
+
+    /**
+     * Parses once, every following call is a cache hit followed by a render.
+     */
+    @Benchmark
+    public WordplayOutput processCached() throws WordplayException {
+        return cachingWordplay.process(script, context);
+    }
+
+    @Benchmark
+    public WordplayOutput renderCompiled() throws WordplayException {
+        return wordplay.render(compiledScript, context);
+    }
+
+    @Benchmark
+    public List<AnchoredObject> renderStreaming() throws WordplayException, IOException {
+        sink.setLength(0);
+        return wordplay.render(compiledScript, context, sink);
+    }
+}
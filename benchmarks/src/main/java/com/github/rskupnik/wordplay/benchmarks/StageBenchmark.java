@@ -0,0 +1,121 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.benchmarks;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.archive.ScriptArchive;
+import com.github.rskupnik.wordplay.archive.ScriptArchiveWriter;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.compiler.DataParser;
+import com.github.rskupnik.wordplay.internal.compiler.Lexer;
+import com.github.rskupnik.wordplay.internal.compiler.ScriptCompiler;
+import com.github.rskupnik.wordplay.internal.preprocessors.HeaderPreprocessor;
+import com.github.rskupnik.wordplay.internal.processors.CodeProcessor;
+import com.github.rskupnik.wordplay.internal.render.TreeRenderer;
+import com.github.rskupnik.wordplay.internal.tree.Node;
+import com.github.rskupnik.wordplay.output.MetaObject;
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+import org.javatuples.Pair;
+import org.javatuples.Triplet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every stage of the pipeline on its own.
+ * Run with -prof gc to get the allocation rate of each stage as well.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StageBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    private final CodeProcessor codeProcessor = new CodeProcessor();
+    private final DataParser dataParser = new DataParser();
+    private final ScriptCompiler scriptCompiler = new ScriptCompiler();
+    private final HeaderPreprocessor headerPreprocessor = new HeaderPreprocessor();
+
+    private String script;
+    private String dataSection;
+    private CompiledScript compiledScript;
+    private WordplayContext context;
+    private ByteBuffer archive;
+
+    @Setup
+    public void setup() throws WordplayException, IOException {
+        script = corpus.script();
+        dataSection = codeProcessor.parse(script).getValue0();
+        compiledScript = scriptCompiler.compile(script);
+        context = corpus.context();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ScriptArchiveWriter().add("script", script).writeTo(out);
+        archive = ByteBuffer.allocateDirect(out.size());
+        archive.put(out.toByteArray()).flip();
+    }
+
+    @Benchmark
+    public Triplet<String, ArrayList<Pair<String, String>>, ArrayList<MetaObject>> codeSection() throws WordplayException {
+        return codeProcessor.parse(script);
+    }
+
+    @Benchmark
+    public Lexer lex() {
+        return new Lexer(dataSection);
+    }
+
+    @Benchmark
+    public Node parseDataSection() {
+        return dataParser.parse(dataSection);
+    }
+
+    @Benchmark
+    public CompiledScript compile() throws WordplayException {
+        return scriptCompiler.compile(script);
+    }
+
+    /**
+     * The alternative to compile() when starting up from a precompiled archive.
+     */
+    @Benchmark
+    public ScriptArchive loadArchive() throws IOException {
+        return ScriptArchive.read(archive);
+    }
+
+    @Benchmark
+    public WordplayOutput render() throws WordplayException {
+        return new TreeRenderer(context, compiledScript.getInjections()).render(compiledScript);
+    }
+
+    @Benchmark
+    public Map<String, String> headers() {
+        return headerPreprocessor.process(script);
+    }
+}
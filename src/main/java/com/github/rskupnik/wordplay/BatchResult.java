@@ -0,0 +1,58 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay;
+
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+
+/**
+ * The outcome of processing a single script of a batch - either its output or the reason it failed.
+ */
+public final class BatchResult {
+
+    private final WordplayOutput output;
+    private final WordplayException exception;
+
+    BatchResult(WordplayOutput output) {
+        this.output = output;
+        this.exception = null;
+    }
+
+    BatchResult(WordplayException exception) {
+        this.output = null;
+        this.exception = exception;
+    }
+
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+    /**
+     * @return the output, or null if processing this script failed
+     */
+    public WordplayOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the reason processing this script failed, or null if it didn't
+     */
+    public WordplayException getException() {
+        return exception;
+    }
+}
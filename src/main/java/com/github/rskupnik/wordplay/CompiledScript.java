@@ -0,0 +1,71 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay;
+
+import com.github.rskupnik.wordplay.internal.tree.Node;
+import com.github.rskupnik.wordplay.output.MetaObject;
+
+import java.util.*;
+
+/**
+ * An immutable, already parsed script.
+ * Obtained from Wordplay.compile() and rendered with Wordplay.render() as many times as needed.
+ */
+public final class CompiledScript {
+
+    private final Node root;
+    private final Map<String, Node> injections;
+    private final List<MetaObject> metaObjects;
+
+    private volatile ReadSet readSet;
+
+    public CompiledScript(Node root, Map<String, Node> injections, List<MetaObject> metaObjects) {
+        this.root = root;
+        this.injections = Collections.unmodifiableMap(new HashMap<>(injections));
+        this.metaObjects = metaObjects != null
+                ? Collections.unmodifiableList(new ArrayList<>(metaObjects))
+                : Collections.<MetaObject>emptyList();
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the internal injections defined in the code section, by name
+     */
+    public Map<String, Node> getInjections() {
+        return injections;
+    }
+
+    public List<MetaObject> getMetaObjects() {
+        return metaObjects;
+    }
+
+    /**
+     * @return everything the script can look up in a context, found the first time it's asked for
+     */
+    public ReadSet getReadSet() {
+        ReadSet current = readSet;
+        if (current == null) {
+            current = new ReadSet(root);
+            readSet = current;
+        }
+        return current;
+    }
+}
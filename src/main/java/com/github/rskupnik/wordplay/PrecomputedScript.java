@@ -0,0 +1,233 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay;
+
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.render.TreeRenderer;
+import com.github.rskupnik.wordplay.internal.tree.ReferenceCollector;
+import com.github.rskupnik.wordplay.output.AnchoredObject;
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+
+import java.util.*;
+
+/**
+ * A script rendered up front in every possible way, for scripts that depend on nothing but a few boolean variables.
+ * Each of the variables is one bit of a mask - set if the variable is true, clear if it's false or missing -
+ * and rendering comes down to computing the mask and looking the output up in a table.
+ * Variants that render the same are stored once.
+ *
+ * Scripts that depend on anything else - string variables, external injections, names of variables
+ * only known at render time - or have too many variants to fit in the memory limit are not precomputed
+ * and are rendered normally instead. A precomputed script is immutable and can be shared between threads.
+ */
+public final class PrecomputedScript {
+
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+    // More variables than this would mean too many renders up front, no matter the memory limit
+    private static final int MAX_VARIABLES = 16;
+
+    private final CompiledScript script;
+    private final List<String> variables;
+    private final WordplayOutput[] variants;    // Indexed by mask, null if not precomputed
+    private final int distinctVariantCount;
+    private final long byteCount;
+
+    private volatile Slots slots;
+
+    private PrecomputedScript(CompiledScript script, List<String> variables, WordplayOutput[] variants,
+                              int distinctVariantCount, long byteCount) {
+        this.script = script;
+        this.variables = variables;
+        this.variants = variants;
+        this.distinctVariantCount = distinctVariantCount;
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * @see #precompute(CompiledScript, long)
+     */
+    public static PrecomputedScript precompute(CompiledScript script) throws WordplayException {
+        return precompute(script, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Renders every variant of the script, unless it can't be precomputed.
+     *
+     * @param maxBytes estimated memory the variants can take at most, together with the table
+     * @throws WordplayException if rendering the script fails
+     */
+    public static PrecomputedScript precompute(CompiledScript script, long maxBytes) throws WordplayException {
+        ReferenceCollector references = ReferenceCollector.collect(script.getRoot());
+        List<String> variables = new ArrayList<>(references.getBooleanVariables());
+        if (!references.getVariables().isEmpty() || !references.getInjections().isEmpty() || references.hasDynamicNames()
+                || variables.size() > MAX_VARIABLES || 8L << variables.size() > maxBytes)
+            return new PrecomputedScript(script, Collections.unmodifiableList(variables), null, 0, 0);
+
+        VariableLayout layout = new VariableLayout();
+        for (String variable : variables) {
+            layout.booleanVariableSlot(variable);   // Slot i is bit i of the mask
+        }
+
+        WordplayOutput[] variants = new WordplayOutput[1 << variables.size()];
+        Map<String, List<WordplayOutput>> distinct = new HashMap<>();   // By text
+        int distinctCount = 0;
+        long byteCount = 8L * variants.length;
+        for (int mask = 0; mask < variants.length; mask++) {
+            WordplayContext context = new WordplayContext(layout);
+            for (int bit = 0; bit < variables.size(); bit++) {
+                context.setVariable(bit, (mask & 1 << bit) != 0);
+            }
+            WordplayOutput output = new TreeRenderer(context, script.getInjections()).render(script);
+
+            List<WordplayOutput> sameText = distinct.get(output.getText());
+            WordplayOutput same = sameText != null ? find(sameText, output) : null;
+            if (same == null) {
+                byteCount += sizeOf(output);
+                if (byteCount > maxBytes)
+                    return new PrecomputedScript(script, Collections.unmodifiableList(variables), null, 0, 0);
+
+                if (sameText == null) {
+                    sameText = new ArrayList<>(1);
+                    distinct.put(output.getText(), sameText);
+                }
+                sameText.add(output);
+                distinctCount++;
+                same = output;
+            }
+            variants[mask] = same;
+        }
+
+        return new PrecomputedScript(script, Collections.unmodifiableList(variables), variants, distinctCount, byteCount);
+    }
+
+    public WordplayOutput render(WordplayContext context) throws WordplayException {
+        if (variants == null)
+            return new TreeRenderer(context, script.getInjections()).render(script);
+
+        int[] slots = slotsIn(context.getLayout());
+        int mask = 0;
+        for (int bit = 0; bit < slots.length; bit++) {
+            Boolean value = slots[bit] >= 0 ? context.getBooleanVariable(slots[bit]) : null;
+            if (value != null && value)
+                mask |= 1 << bit;
+        }
+        return variants[mask];
+    }
+
+    /**
+     * @return whether the variants were precomputed, rather than being rendered every time
+     */
+    public boolean isPrecomputed() {
+        return variants != null;
+    }
+
+    /**
+     * @return the boolean variables the script depends on, in the order of the bits of the mask
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the number of different outputs stored, 0 if not precomputed
+     */
+    public int getVariantCount() {
+        return distinctVariantCount;
+    }
+
+    /**
+     * @return the estimated memory taken by the variants and the table
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public CompiledScript getScript() {
+        return script;
+    }
+
+    private int[] slotsIn(VariableLayout layout) {
+        Slots current = slots;
+        if (current == null || current.layout != layout) {
+            int[] found = new int[variables.size()];
+            for (int i = 0; i < found.length; i++) {
+                found[i] = layout.findBooleanVariableSlot(variables.get(i));
+            }
+            current = new Slots(layout, found);
+            // A variable missing from the layout now can be added to it later, so only complete lookups are kept
+            if (!contains(found, -1))
+                slots = current;
+        }
+        return current.slots;
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int element : array) {
+            if (element == value)
+                return true;
+        }
+        return false;
+    }
+
+    private static WordplayOutput find(List<WordplayOutput> outputs, WordplayOutput output) {
+        for (WordplayOutput candidate : outputs) {
+            if (sameAnchoredObjects(candidate, output))
+                return candidate;
+        }
+        return null;
+    }
+
+    private static boolean sameAnchoredObjects(WordplayOutput a, WordplayOutput b) {
+        List<AnchoredObject> first = a.getAnchoredObjects();
+        List<AnchoredObject> second = b.getAnchoredObjects();
+        if (first.size() != second.size())
+            return false;
+
+        for (int i = 0; i < first.size(); i++) {
+            AnchoredObject x = first.get(i);
+            AnchoredObject y = second.get(i);
+            if (x.getPosition() != y.getPosition() || !x.getText().equals(y.getText())
+                    || !x.getParameters().equals(y.getParameters()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A rough estimate: the text and the objects around it, parameters being shared between outputs.
+     */
+    private static long sizeOf(WordplayOutput output) {
+        long size = 96 + 2L * output.getText().length();
+        for (AnchoredObject anchoredObject : output.getAnchoredObjects()) {
+            size += 64 + 2L * anchoredObject.getText().length();
+        }
+        return size;
+    }
+
+    private static final class Slots {
+
+        private final VariableLayout layout;
+        private final int[] slots;
+
+        private Slots(VariableLayout layout, int[] slots) {
+            this.layout = layout;
+            this.slots = slots;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay;
+
+import com.github.rskupnik.wordplay.internal.tree.LiteralNode;
+import com.github.rskupnik.wordplay.internal.tree.Node;
+import com.github.rskupnik.wordplay.internal.tree.ReferenceCollector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything a script can look up in a context when it's rendered - the ids of external injections and the names
+ * of boolean and string variables - no matter which branches a particular render takes.
+ * Two contexts with the same values for all of them render the script the same, provided the names of
+ * the variables are known up front and the injected values are plain text - see getValues().
+ */
+public final class ReadSet {
+
+    private final List<String> injections;
+    private final List<String> booleanVariables;
+    private final List<String> variables;
+    private final boolean dynamicNames;
+
+    private volatile Slots slots;
+
+    ReadSet(Node root) {
+        ReferenceCollector references = ReferenceCollector.collect(root);
+        this.injections = Collections.unmodifiableList(new ArrayList<>(references.getInjections()));
+        this.booleanVariables = Collections.unmodifiableList(new ArrayList<>(references.getBooleanVariables()));
+        this.variables = Collections.unmodifiableList(new ArrayList<>(references.getVariables()));
+        this.dynamicNames = references.hasDynamicNames();
+    }
+
+    public List<String> getInjections() {
+        return injections;
+    }
+
+    public List<String> getBooleanVariables() {
+        return booleanVariables;
+    }
+
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return true if the name of some variable is only known at render time, so the read set is not complete
+     */
+    public boolean hasDynamicNames() {
+        return dynamicNames;
+    }
+
+    /**
+     * Values that render the same are given in the same form - a missing boolean variable as false,
+     * an empty string variable as a missing one.
+     *
+     * @return the values of the read set in the context, which compare equal for contexts that render
+     *         the script the same, or null if that can't be told - because of dynamic names
+     *         or an injected value that is not plain text and could look up more
+     */
+    public Object[] getValues(WordplayContext context) {
+        if (dynamicNames)
+            return null;
+
+        Slots slots = slotsIn(context.getLayout());
+        Object[] values = new Object[injections.size() + booleanVariables.size() + variables.size()];
+        int i = 0;
+        for (int slot : slots.injections) {
+            Node injected = context.getInjection(slot);
+            if (injected != null && !(injected instanceof LiteralNode))
+                return null;
+
+            values[i++] = injected != null ? ((LiteralNode) injected).getText() : null;
+        }
+        for (int slot : slots.booleanVariables) {
+            Boolean value = context.getBooleanVariable(slot);
+            values[i++] = value != null && value;
+        }
+        for (int slot : slots.variables) {
+            String value = context.getVariable(slot);
+            values[i++] = value != null && value.length() != 0 ? value : null;
+        }
+        return values;
+    }
+
+    private Slots slotsIn(VariableLayout layout) {
+        Slots current = slots;
+        if (current != null && current.layout == layout)
+            return current;
+
+        current = new Slots(layout, new int[injections.size()], new int[booleanVariables.size()], new int[variables.size()]);
+        boolean complete = true;
+        for (int i = 0; i < injections.size(); i++) {
+            complete &= (current.injections[i] = layout.findInjectionSlot(injections.get(i))) >= 0;
+        }
+        for (int i = 0; i < booleanVariables.size(); i++) {
+            complete &= (current.booleanVariables[i] = layout.findBooleanVariableSlot(booleanVariables.get(i))) >= 0;
+        }
+        for (int i = 0; i < variables.size(); i++) {
+            complete &= (current.variables[i] = layout.findVariableSlot(variables.get(i))) >= 0;
+        }
+
+        // A name missing from the layout now can be added to it later, so only complete lookups are kept
+        if (complete)
+            slots = current;
+        return current;
+    }
+
+    private static final class Slots {
+
+        private final VariableLayout layout;
+        private final int[] injections;
+        private final int[] booleanVariables;
+        private final int[] variables;
+
+        private Slots(VariableLayout layout, int[] injections, int[] booleanVariables, int[] variables) {
+            this.layout = layout;
+            this.injections = injections;
+            this.booleanVariables = booleanVariables;
+            this.variables = variables;
+        }
+    }
+}
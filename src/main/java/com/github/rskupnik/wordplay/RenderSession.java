@@ -0,0 +1,176 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay;
+
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.render.ReadRecorder;
+import com.github.rskupnik.wordplay.internal.render.TreeRenderer;
+import com.github.rskupnik.wordplay.internal.tree.InjectionNode;
+import com.github.rskupnik.wordplay.internal.tree.Node;
+import com.github.rskupnik.wordplay.internal.tree.SequenceNode;
+import com.github.rskupnik.wordplay.output.AnchoredObject;
+import com.github.rskupnik.wordplay.output.TextRope;
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Renders the same script with the same context over and over again,
+ * recomputing only the parts of the text affected by what changed in the context in the meantime.
+ * The script is split into its top-level segments - pieces of text and the expressions between them -
+ * and every segment remembers the variables and injections it looked up the last time it was rendered.
+ * Segments for which none of those changed are reused as they are, anchored objects included,
+ * the positions of which are shifted if the text before them changed its length.
+ * A script that is nothing but an internal injection is split into the segments of the injected text.
+ * One that is nothing but a single ternary, matching or anchored expression is a single segment though,
+ * rendered whole whenever anything it read changes - which part of it is taken depends on the context.
+ * A session is not thread-safe, just like the context it uses.
+ */
+public final class RenderSession {
+
+    private final CompiledScript script;
+    private final WordplayContext context;
+    private final List<Node> segments;
+
+    private final String[] texts;
+    private final List<AnchoredObject>[] anchoredObjects;    // Positions relative to the segment
+    private final ReadRecorder[] reads;
+
+    // Anchored objects as placed in the last output, reused as long as their segment doesn't move
+    private final List<AnchoredObject>[] placedAnchoredObjects;
+    private final int[] offsets;
+
+    private WordplayOutput lastOutput;
+    private int reusedSegmentCount;
+
+    @SuppressWarnings("unchecked")
+    public RenderSession(CompiledScript script, WordplayContext context) {
+        this.script = script;
+        this.context = context;
+        this.segments = segmentsOf(script);
+        this.texts = new String[segments.size()];
+        this.anchoredObjects = new List[segments.size()];
+        this.reads = new ReadRecorder[segments.size()];
+        this.placedAnchoredObjects = new List[segments.size()];
+        this.offsets = new int[segments.size()];
+    }
+
+    public WordplayOutput render() throws WordplayException {
+        // Render the stale segments on the side first, so that a failure leaves the session as it was
+        String[] newTexts = texts.clone();
+        List<AnchoredObject>[] newAnchoredObjects = anchoredObjects.clone();
+        ReadRecorder[] newReads = reads.clone();
+        int reused = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (reads[i] != null && !reads[i].isStale(context)) {
+                reused++;
+                continue;
+            }
+
+            ReadRecorder recorder = new ReadRecorder();
+            StringBuilder sb = new StringBuilder();
+            try {
+                newAnchoredObjects[i] = new TreeRenderer(context, script.getInjections())
+                        .recordReads(recorder)
+                        .render(segments.get(i), sb);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);    // StringBuilder never throws it
+            }
+            newTexts[i] = sb.toString();
+            newReads[i] = recorder;
+        }
+
+        reusedSegmentCount = reused;
+        if (reused == segments.size() && lastOutput != null)
+            return lastOutput;
+
+        for (int i = 0; i < reads.length; i++) {
+            if (newReads[i] != reads[i])
+                placedAnchoredObjects[i] = null;
+        }
+        System.arraycopy(newTexts, 0, texts, 0, texts.length);
+        System.arraycopy(newAnchoredObjects, 0, anchoredObjects, 0, anchoredObjects.length);
+        System.arraycopy(newReads, 0, reads, 0, reads.length);
+
+        lastOutput = assemble();
+        return lastOutput;
+    }
+
+    /**
+     * @return how many segments were reused as they were by the last render
+     */
+    public int getReusedSegmentCount() {
+        return reusedSegmentCount;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public CompiledScript getScript() {
+        return script;
+    }
+
+    public WordplayContext getContext() {
+        return context;
+    }
+
+    private static List<Node> segmentsOf(CompiledScript script) {
+        // Internal injections are fixed when the script is compiled and can't form a cycle
+        Node root = script.getRoot();
+        while (root instanceof InjectionNode && script.getInjections().containsKey(((InjectionNode) root).getId())) {
+            root = script.getInjections().get(((InjectionNode) root).getId());
+        }
+
+        return root instanceof SequenceNode
+                ? ((SequenceNode) root).getChildren()
+                : Collections.singletonList(root);
+    }
+
+    private WordplayOutput assemble() {
+        // The texts of the segments are shared with the output rather than copied into it
+        TextRope.Builder text = new TextRope.Builder();
+        List<AnchoredObject> output = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) {
+            int offset = text.length();
+            if (placedAnchoredObjects[i] == null || offsets[i] != offset) {
+                placedAnchoredObjects[i] = place(anchoredObjects[i], offset);
+                offsets[i] = offset;
+            }
+            output.addAll(placedAnchoredObjects[i]);
+            text.append(texts[i]);
+        }
+
+        return new WordplayOutput(text.build(), output, script.getMetaObjects());
+    }
+
+    private static List<AnchoredObject> place(List<AnchoredObject> anchoredObjects, int offset) {
+        if (offset == 0 || anchoredObjects.isEmpty())
+            return anchoredObjects;
+
+        List<AnchoredObject> placed = new ArrayList<>(anchoredObjects.size());
+        for (AnchoredObject anchoredObject : anchoredObjects) {
+            placed.add(new AnchoredObject(anchoredObject.getText(), anchoredObject.getPosition() + offset,
+                    anchoredObject.getParameters()));
+        }
+        return placed;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns every variable and injection name a slot - a small integer under which contexts store its value.
+ * Boolean variables, string variables and injections are numbered separately, starting from 0.
+ *
+ * Contexts sharing a layout agree on the slots, so the slots can be looked up once, when the application starts,
+ * and then used to set variables without hashing any names. Compiled scripts remember the slots
+ * of the names they use in the last layout they were rendered with, so rendering many times with contexts
+ * of the same layout doesn't look names up at all.
+ *
+ * A name keeps its slot forever, and new names can be added at any time from any thread.
+ */
+public final class VariableLayout {
+
+    private final Names booleanVariables = new Names();
+    private final Names variables = new Names();
+    private final Names injections = new Names();
+
+    /**
+     * @return the slot of the boolean variable, assigned right away if the name is new
+     */
+    public int booleanVariableSlot(String name) {
+        return booleanVariables.slot(name);
+    }
+
+    public int variableSlot(String name) {
+        return variables.slot(name);
+    }
+
+    public int injectionSlot(String id) {
+        return injections.slot(id);
+    }
+
+    /**
+     * @return the slot of the boolean variable or -1 if it doesn't have one yet
+     */
+    public int findBooleanVariableSlot(String name) {
+        return booleanVariables.find(name);
+    }
+
+    public int findVariableSlot(String name) {
+        return variables.find(name);
+    }
+
+    public int findInjectionSlot(String id) {
+        return injections.find(id);
+    }
+
+    public String getBooleanVariableName(int slot) {
+        return booleanVariables.name(slot);
+    }
+
+    public String getVariableName(int slot) {
+        return variables.name(slot);
+    }
+
+    public String getInjectionName(int slot) {
+        return injections.name(slot);
+    }
+
+    private static final class Names {
+
+        private final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        private int slot(String name) {
+            Integer slot = slots.get(name);
+            return slot != null ? slot : add(name);
+        }
+
+        private synchronized int add(String name) {
+            Integer slot = slots.get(name);
+            if (slot != null)
+                return slot;
+
+            names.add(name);
+            slots.put(name, names.size() - 1);
+            return names.size() - 1;
+        }
+
+        private int find(String name) {
+            Integer slot = slots.get(name);
+            return slot != null ? slot : -1;
+        }
+
+        private synchronized String name(int slot) {
+            return names.get(slot);
+        }
+    }
+}
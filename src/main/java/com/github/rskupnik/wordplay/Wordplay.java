@@ -18,12 +18,26 @@
 package com.github.rskupnik.wordplay;
 
 import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.output.AnchoredObject;
 import com.github.rskupnik.wordplay.output.WordplayOutput;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 public interface Wordplay {
     WordplayOutput process(String input) throws WordplayException;
+    WordplayOutput process(String input, WordplayContext context) throws WordplayException;
+    List<BatchResult> processAll(Collection<String> inputs, WordplayContext context) throws InterruptedException;
+    List<BatchResult> processAll(Collection<String> inputs, WordplayContext context, ExecutorService executor) throws InterruptedException;
+    CompiledScript compile(String input) throws WordplayException;
+    CompiledScript compile(String id, String input) throws WordplayException;
+    CompiledScript partiallyEvaluate(CompiledScript script, WordplayContext staticValues) throws WordplayException;
+    WordplayOutput render(CompiledScript script) throws WordplayException;
+    WordplayOutput render(CompiledScript script, WordplayContext context) throws WordplayException;
+    List<AnchoredObject> render(CompiledScript script, WordplayContext context, Appendable out) throws WordplayException, IOException;
     void reset();
     void setVariable(String var, boolean value);
     void setVariable(String var, String value);
@@ -0,0 +1,608 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay;
+
+import com.github.rskupnik.wordplay.internal.collect.SlotOverlay;
+import com.github.rskupnik.wordplay.internal.compiler.DataParser;
+import com.github.rskupnik.wordplay.internal.session.StateFormat;
+import com.github.rskupnik.wordplay.internal.session.StateReader;
+import com.github.rskupnik.wordplay.internal.session.StateWriter;
+import com.github.rskupnik.wordplay.internal.tree.Node;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Variables and injections used for rendering, kept apart from the engine.
+ * A single Wordplay instance can be shared by any number of threads as long as each
+ * of them renders with its own context - a context itself is not thread-safe.
+ *
+ * Values are stored in arrays, under the slots given to their names by the context's VariableLayout,
+ * and can be set either by name or directly by slot. Contexts created for the same set of variables
+ * should share one layout - see VariableLayout.
+ *
+ * The whole state can be saved as a compact snapshot and restored later, also with a different layout,
+ * and the changes made since the last save can be saved on their own, as a delta - see SessionStore.
+ *
+ * A context can be forked to try out changes - render a preview of what would happen if - without touching it.
+ * Forking doesn't copy the arrays: the fork shares them with its parent, and both keep whatever they change
+ * afterwards in a small overlay on top of them. The arrays of a kind - boolean variables, string variables
+ * or injections - are copied only once its overlay grows large compared to them, or when the state is saved,
+ * which goes through every slot anyway. Trying out a few changes costs as much as the changes themselves,
+ * however many variables the layout has.
+ */
+public final class WordplayContext {
+
+    private static final DataParser dataParser = new DataParser();
+
+    // An overlay is flattened into a copy of the arrays once it has more entries than this or 1/8 of the slots
+    private static final int MIN_FLATTENED_OVERLAY_SIZE = 16;
+
+    private final VariableLayout layout;
+
+    // Two bits per boolean variable - whether it's set at all and its value
+    private long[] booleanVariablesSet;
+    private long[] booleanVariables;
+    private String[] variables;
+    private Node[] injectedObjects;
+    private String[] injectedValues;    // As given, to be saved
+
+    // Whether the arrays of each kind, bitsets of changed slots included, are shared with a fork or a parent.
+    // Shared arrays are never written to - changes go to the overlay of the kind, null until there are any
+    private boolean sharedBooleanVariables;
+    private boolean sharedVariables;
+    private boolean sharedInjections;
+    private SlotOverlay booleanVariableOverlay;
+    private SlotOverlay variableOverlay;
+    private SlotOverlay injectionOverlay;       // Compiled values, with the values as given for sources
+
+    // Slots changed since the state was last saved or restored, apart from those marked in the overlays
+    private long[] changedBooleanVariables;
+    private long[] changedVariables;
+    private long[] changedInjections;
+
+    /**
+     * Creates a context with a layout of its own.
+     */
+    public WordplayContext() {
+        this(new VariableLayout());
+    }
+
+    public WordplayContext(VariableLayout layout) {
+        this.layout = layout;
+        this.booleanVariablesSet = new long[1];
+        this.booleanVariables = new long[1];
+        this.variables = new String[8];
+        this.injectedObjects = new Node[8];
+        this.injectedValues = new String[8];
+        this.changedBooleanVariables = new long[1];
+        this.changedVariables = new long[1];
+        this.changedInjections = new long[1];
+    }
+
+    private WordplayContext(WordplayContext parent) {
+        this.layout = parent.layout;
+        this.booleanVariablesSet = parent.booleanVariablesSet;
+        this.booleanVariables = parent.booleanVariables;
+        this.variables = parent.variables;
+        this.injectedObjects = parent.injectedObjects;
+        this.injectedValues = parent.injectedValues;
+        this.sharedBooleanVariables = parent.sharedBooleanVariables = true;
+        this.sharedVariables = parent.sharedVariables = true;
+        this.sharedInjections = parent.sharedInjections = true;
+        this.booleanVariableOverlay = copy(parent.booleanVariableOverlay);
+        this.variableOverlay = copy(parent.variableOverlay);
+        this.injectionOverlay = copy(parent.injectionOverlay);
+        this.changedBooleanVariables = parent.changedBooleanVariables;
+        this.changedVariables = parent.changedVariables;
+        this.changedInjections = parent.changedInjections;
+    }
+
+    /**
+     * Creates a context with the same layout and values, without copying its arrays - only the overlay of changes
+     * this context made since it was forked itself, if it was, is copied. Changes made to the fork
+     * don't affect this context and the other way round, so the fork can be handed over to another thread
+     * and rendered with while this one is still being changed. Like any context, a single fork
+     * must not be used by many threads at once.
+     *
+     * @return a context with the state of this one, including the changes not saved yet
+     */
+    public WordplayContext fork() {
+        return new WordplayContext(this);
+    }
+
+    public VariableLayout getLayout() {
+        return layout;
+    }
+
+    public WordplayContext setVariable(String var, boolean value) {
+        return setVariable(layout.booleanVariableSlot(var), value);
+    }
+
+    public WordplayContext setVariable(String var, String value) {
+        return setVariable(layout.variableSlot(var), value);
+    }
+
+    public WordplayContext inject(String id, String value) {
+        return inject(layout.injectionSlot(id), value);
+    }
+
+    public WordplayContext setVariable(int slot, boolean value) {
+        if (sharedBooleanVariables) {
+            booleanVariableOverlay = put(booleanVariableOverlay, slot, value, null);
+            if (isLarge(booleanVariableOverlay, booleanVariables.length << 6))
+                flattenBooleanVariables();
+            return this;
+        }
+
+        int word = slot >>> 6;
+        if (word >= booleanVariables.length) {
+            booleanVariablesSet = Arrays.copyOf(booleanVariablesSet, capacity(word + 1, booleanVariablesSet.length));
+            booleanVariables = Arrays.copyOf(booleanVariables, booleanVariablesSet.length);
+        }
+
+        long bit = 1L << slot;
+        booleanVariablesSet[word] |= bit;
+        changedBooleanVariables = mark(changedBooleanVariables, slot);
+        if (value) {
+            booleanVariables[word] |= bit;
+        } else {
+            booleanVariables[word] &= ~bit;
+        }
+        return this;
+    }
+
+    public WordplayContext setVariable(int slot, String value) {
+        if (sharedVariables) {
+            variableOverlay = put(variableOverlay, slot, value, null);
+            if (isLarge(variableOverlay, variables.length))
+                flattenVariables();
+            return this;
+        }
+
+        if (slot >= variables.length)
+            variables = Arrays.copyOf(variables, capacity(slot + 1, variables.length));
+
+        variables[slot] = value;
+        changedVariables = mark(changedVariables, slot);
+        return this;
+    }
+
+    public WordplayContext inject(int slot, String value) {
+        // Injected values are compiled right away, an empty value counts as a missing one
+        boolean missing = value == null || value.equals("");
+        Node object = missing ? null : dataParser.parse(value);
+        if (missing)
+            value = null;
+
+        if (sharedInjections) {
+            injectionOverlay = put(injectionOverlay, slot, object, value);
+            if (isLarge(injectionOverlay, injectedObjects.length))
+                flattenInjections();
+            return this;
+        }
+
+        if (slot >= injectedObjects.length) {
+            injectedObjects = Arrays.copyOf(injectedObjects, capacity(slot + 1, injectedObjects.length));
+            injectedValues = Arrays.copyOf(injectedValues, injectedObjects.length);
+        }
+
+        injectedObjects[slot] = object;
+        injectedValues[slot] = value;
+        changedInjections = mark(changedInjections, slot);
+        return this;
+    }
+
+    public void reset() {
+        flatten();
+        for (int word = 0; word < booleanVariablesSet.length; word++) {
+            for (long set = booleanVariablesSet[word]; set != 0; set &= set - 1) {
+                changedBooleanVariables = mark(changedBooleanVariables, word << 6 | Long.numberOfTrailingZeros(set));
+            }
+        }
+        changedVariables = markSet(changedVariables, variables);
+        changedInjections = markSet(changedInjections, injectedValues);
+        clear();
+    }
+
+    /**
+     * Saves every variable and injection, marking the state as saved.
+     *
+     * @return the state in the format read by apply()
+     */
+    public byte[] snapshot() {
+        flatten();
+        StateWriter writer = new StateWriter().writeByte(StateFormat.SNAPSHOT);
+        writeBooleanVariables(writer, booleanVariablesSet);
+        writeStrings(writer, variables, null, false);
+        writeStrings(writer, injectedValues, null, true);
+        markSaved();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Saves only what changed since the state was last saved or restored, including the variables
+     * and injections that were removed by reset(), marking the state as saved.
+     *
+     * @return the changes in the format read by apply(), to be applied on top of the previously saved state
+     */
+    public byte[] delta() {
+        flatten();
+        StateWriter writer = new StateWriter().writeByte(StateFormat.DELTA);
+        writeBooleanVariables(writer, changedBooleanVariables);
+        writeStrings(writer, variables, changedVariables, false);
+        writeStrings(writer, injectedValues, changedInjections, true);
+        markSaved();
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return whether anything was changed since the state was last saved or restored
+     */
+    public boolean hasChanges() {
+        return !isEmpty(changedBooleanVariables) || !isEmpty(changedVariables) || !isEmpty(changedInjections)
+                || hasChanges(booleanVariableOverlay) || hasChanges(variableOverlay) || hasChanges(injectionOverlay);
+    }
+
+    /**
+     * @see #apply(ByteBuffer)
+     */
+    public WordplayContext apply(byte[] state) {
+        return apply(ByteBuffer.wrap(state));
+    }
+
+    /**
+     * Restores a saved state - a snapshot, a delta or any number of them written one after another,
+     * applied in order. The state counts as saved afterwards.
+     *
+     * @throws IllegalArgumentException if the data is not a saved state
+     */
+    public WordplayContext apply(ByteBuffer state) {
+        StateReader reader = new StateReader(state);
+        while (reader.hasMore()) {
+            int kind = reader.readByte();
+            if (kind == StateFormat.SNAPSHOT) {
+                clear();
+            } else if (kind != StateFormat.DELTA) {
+                throw new IllegalArgumentException("Malformed session state: unknown record kind " + kind);
+            }
+
+            for (int i = reader.readVarint(); i > 0; i--) {
+                String name = reader.readString();
+                int value = reader.readByte();
+                if (value == StateFormat.UNSET) {
+                    unsetBooleanVariable(layout.booleanVariableSlot(name));
+                } else {
+                    setVariable(name, value == StateFormat.TRUE);
+                }
+            }
+            for (int i = reader.readVarint(); i > 0; i--) {
+                setVariable(reader.readString(), reader.readOptionalString());
+            }
+            for (int i = reader.readVarint(); i > 0; i--) {
+                inject(reader.readString(), reader.readOptionalString());
+            }
+        }
+
+        markSaved();
+        return this;
+    }
+
+    public Boolean getBooleanVariable(String var) {
+        return getBooleanVariable(layout.findBooleanVariableSlot(var));
+    }
+
+    public String getVariable(String var) {
+        return getVariable(layout.findVariableSlot(var));
+    }
+
+    /**
+     * @return the compiled injected value or null if nothing was injected under this id
+     */
+    public Node getInjection(String id) {
+        return getInjection(layout.findInjectionSlot(id));
+    }
+
+    /**
+     * @return the value or null if the variable is not set, which includes a slot of -1
+     */
+    public Boolean getBooleanVariable(int slot) {
+        if (booleanVariableOverlay != null) {
+            int index = booleanVariableOverlay.find(slot);
+            if (index != -1)
+                return (Boolean) booleanVariableOverlay.valueAt(index);
+        }
+
+        int word = slot >>> 6;
+        if (slot < 0 || word >= booleanVariables.length || (booleanVariablesSet[word] & 1L << slot) == 0)
+            return null;
+
+        return (booleanVariables[word] & 1L << slot) != 0;
+    }
+
+    public String getVariable(int slot) {
+        if (variableOverlay != null) {
+            int index = variableOverlay.find(slot);
+            if (index != -1)
+                return (String) variableOverlay.valueAt(index);
+        }
+
+        return slot >= 0 && slot < variables.length ? variables[slot] : null;
+    }
+
+    public Node getInjection(int slot) {
+        if (injectionOverlay != null) {
+            int index = injectionOverlay.find(slot);
+            if (index != -1)
+                return (Node) injectionOverlay.valueAt(index);
+        }
+
+        return slot >= 0 && slot < injectedObjects.length ? injectedObjects[slot] : null;
+    }
+
+    /**
+     * Takes the values from the overlays and the shared arrays into arrays of this context's own.
+     */
+    private void flatten() {
+        flattenBooleanVariables();
+        flattenVariables();
+        flattenInjections();
+    }
+
+    private void flattenBooleanVariables() {
+        if (!sharedBooleanVariables)
+            return;
+
+        SlotOverlay overlay = booleanVariableOverlay;
+        int words = overlay != null ? capacity((overlay.maxSlot() >> 6) + 1, booleanVariables.length) : booleanVariables.length;
+        booleanVariablesSet = Arrays.copyOf(booleanVariablesSet, words);
+        booleanVariables = Arrays.copyOf(booleanVariables, words);
+        changedBooleanVariables = changedBooleanVariables.clone();
+        sharedBooleanVariables = false;
+        booleanVariableOverlay = null;
+        if (overlay == null)
+            return;
+
+        for (int i = 0; i < overlay.capacity(); i++) {
+            int slot = overlay.slotAt(i);
+            if (slot == -1)
+                continue;
+
+            Boolean value = (Boolean) overlay.valueAt(i);
+            if (value == null) {
+                unsetBooleanVariable(slot);
+            } else {
+                booleanVariablesSet[slot >>> 6] |= 1L << slot;
+                if (value) {
+                    booleanVariables[slot >>> 6] |= 1L << slot;
+                } else {
+                    booleanVariables[slot >>> 6] &= ~(1L << slot);
+                }
+            }
+            if (overlay.isChanged(i))
+                changedBooleanVariables = mark(changedBooleanVariables, slot);
+        }
+    }
+
+    private void flattenVariables() {
+        if (!sharedVariables)
+            return;
+
+        SlotOverlay overlay = variableOverlay;
+        variables = Arrays.copyOf(variables, overlay != null ? capacity(overlay.maxSlot() + 1, variables.length) : variables.length);
+        changedVariables = changedVariables.clone();
+        sharedVariables = false;
+        variableOverlay = null;
+        if (overlay == null)
+            return;
+
+        for (int i = 0; i < overlay.capacity(); i++) {
+            int slot = overlay.slotAt(i);
+            if (slot == -1)
+                continue;
+
+            variables[slot] = (String) overlay.valueAt(i);
+            if (overlay.isChanged(i))
+                changedVariables = mark(changedVariables, slot);
+        }
+    }
+
+    private void flattenInjections() {
+        if (!sharedInjections)
+            return;
+
+        SlotOverlay overlay = injectionOverlay;
+        int length = overlay != null ? capacity(overlay.maxSlot() + 1, injectedObjects.length) : injectedObjects.length;
+        injectedObjects = Arrays.copyOf(injectedObjects, length);
+        injectedValues = Arrays.copyOf(injectedValues, length);
+        changedInjections = changedInjections.clone();
+        sharedInjections = false;
+        injectionOverlay = null;
+        if (overlay == null)
+            return;
+
+        for (int i = 0; i < overlay.capacity(); i++) {
+            int slot = overlay.slotAt(i);
+            if (slot == -1)
+                continue;
+
+            injectedObjects[slot] = (Node) overlay.valueAt(i);
+            injectedValues[slot] = (String) overlay.sourceAt(i);
+            if (overlay.isChanged(i))
+                changedInjections = mark(changedInjections, slot);
+        }
+    }
+
+    private void clear() {
+        // Shared arrays are left to the other contexts, and the overlays go, since nothing is left to lay them over
+        booleanVariableOverlay = variableOverlay = injectionOverlay = null;
+        if (sharedBooleanVariables) {
+            booleanVariablesSet = new long[booleanVariablesSet.length];
+            booleanVariables = new long[booleanVariables.length];
+            changedBooleanVariables = changedBooleanVariables.clone();
+            sharedBooleanVariables = false;
+        } else {
+            Arrays.fill(booleanVariablesSet, 0);
+            Arrays.fill(booleanVariables, 0);
+        }
+
+        if (sharedVariables) {
+            variables = new String[variables.length];
+            changedVariables = changedVariables.clone();
+            sharedVariables = false;
+        } else {
+            Arrays.fill(variables, null);
+        }
+
+        if (sharedInjections) {
+            injectedObjects = new Node[injectedObjects.length];
+            injectedValues = new String[injectedValues.length];
+            changedInjections = changedInjections.clone();
+            sharedInjections = false;
+        } else {
+            Arrays.fill(injectedObjects, null);
+            Arrays.fill(injectedValues, null);
+        }
+    }
+
+    private void unsetBooleanVariable(int slot) {
+        if (sharedBooleanVariables) {
+            booleanVariableOverlay = put(booleanVariableOverlay, slot, null, null);
+            if (isLarge(booleanVariableOverlay, booleanVariables.length << 6))
+                flattenBooleanVariables();
+            return;
+        }
+
+        int word = slot >>> 6;
+        if (word < booleanVariablesSet.length) {
+            booleanVariablesSet[word] &= ~(1L << slot);
+            booleanVariables[word] &= ~(1L << slot);
+        }
+    }
+
+    private void markSaved() {
+        changedBooleanVariables = markSaved(changedBooleanVariables, sharedBooleanVariables, booleanVariableOverlay);
+        changedVariables = markSaved(changedVariables, sharedVariables, variableOverlay);
+        changedInjections = markSaved(changedInjections, sharedInjections, injectionOverlay);
+    }
+
+    private static long[] markSaved(long[] changed, boolean shared, SlotOverlay overlay) {
+        if (overlay != null)
+            overlay.markSaved();
+        if (shared)
+            return new long[1];     // The shared bitset is left to the other contexts
+
+        Arrays.fill(changed, 0);
+        return changed;
+    }
+
+    /**
+     * Writes the boolean variables of the slots in the bitset.
+     */
+    private void writeBooleanVariables(StateWriter writer, long[] slots) {
+        int count = 0;
+        for (long word : slots) {
+            count += Long.bitCount(word);
+        }
+
+        writer.writeVarint(count);
+        for (int word = 0; word < slots.length; word++) {
+            for (long bits = slots[word]; bits != 0; bits &= bits - 1) {
+                int slot = word << 6 | Long.numberOfTrailingZeros(bits);
+                Boolean value = getBooleanVariable(slot);
+                writer.writeString(layout.getBooleanVariableName(slot))
+                        .writeByte(value == null ? StateFormat.UNSET : value ? StateFormat.TRUE : StateFormat.FALSE);
+            }
+        }
+    }
+
+    /**
+     * Writes the values of the slots in the bitset or, without one, of all the slots that have a value.
+     */
+    private void writeStrings(StateWriter writer, String[] values, long[] slots, boolean injections) {
+        int count = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (slots == null ? values[slot] != null : isMarked(slots, slot))
+                count++;
+        }
+
+        writer.writeVarint(count);
+        for (int slot = 0; slot < values.length; slot++) {
+            if (slots == null ? values[slot] != null : isMarked(slots, slot)) {
+                writer.writeString(injections ? layout.getInjectionName(slot) : layout.getVariableName(slot))
+                        .writeOptionalString(values[slot]);
+            }
+        }
+    }
+
+    private static SlotOverlay put(SlotOverlay overlay, int slot, Object value, Object source) {
+        if (overlay == null)
+            overlay = new SlotOverlay();
+        overlay.put(slot, value, source);
+        return overlay;
+    }
+
+    private static SlotOverlay copy(SlotOverlay overlay) {
+        return overlay != null ? overlay.copy() : null;
+    }
+
+    private static boolean isLarge(SlotOverlay overlay, int slots) {
+        return overlay.size() > Math.max(MIN_FLATTENED_OVERLAY_SIZE, slots >>> 3);
+    }
+
+    private static boolean hasChanges(SlotOverlay overlay) {
+        return overlay != null && overlay.hasChanges();
+    }
+
+    /**
+     * @return the current capacity if it's enough, otherwise at least double that
+     */
+    private static int capacity(int needed, int current) {
+        return needed <= current ? current : Math.max(needed, current * 2);
+    }
+
+    private static long[] mark(long[] bits, int index) {
+        int word = index >>> 6;
+        if (word >= bits.length)
+            bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+
+        bits[word] |= 1L << index;
+        return bits;
+    }
+
+    private static long[] markSet(long[] bits, String[] values) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null)
+                bits = mark(bits, slot);
+        }
+        return bits;
+    }
+
+    private static boolean isMarked(long[] bits, int index) {
+        int word = index >>> 6;
+        return word < bits.length && (bits[word] & 1L << index) != 0;
+    }
+
+    private static boolean isEmpty(long[] bits) {
+        for (long word : bits) {
+            if (word != 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -17,84 +17,289 @@
  */
 package com.github.rskupnik.wordplay;
 
+import com.github.rskupnik.wordplay.cache.OutputCache;
+import com.github.rskupnik.wordplay.cache.ScriptCache;
 import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.exceptions.WordplayProcessingException;
+import com.github.rskupnik.wordplay.internal.compiler.PartialEvaluator;
+import com.github.rskupnik.wordplay.internal.compiler.ScriptCompiler;
 import com.github.rskupnik.wordplay.internal.preprocessors.HeaderPreprocessor;
-import com.github.rskupnik.wordplay.internal.processors.CodeProcessor;
-import com.github.rskupnik.wordplay.internal.processors.EmissionProcessor;
-import com.github.rskupnik.wordplay.internal.processors.ExpressionProcessor;
-import com.github.rskupnik.wordplay.internal.processors.InjectionProcessor;
+import com.github.rskupnik.wordplay.internal.render.TreeRenderer;
+import com.github.rskupnik.wordplay.metrics.CompileMetrics;
+import com.github.rskupnik.wordplay.metrics.RenderMetrics;
+import com.github.rskupnik.wordplay.metrics.WordplayListener;
 import com.github.rskupnik.wordplay.output.AnchoredObject;
-import com.github.rskupnik.wordplay.output.MetaObject;
 import com.github.rskupnik.wordplay.output.WordplayOutput;
-import org.javatuples.Pair;
-import org.javatuples.Triplet;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+/**
+ * The methods that take a WordplayContext don't touch any state of the engine,
+ * so a single instance can serve any number of threads.
+ * The ones that don't take it use a context held by this instance, which is not thread-safe.
+ * If a ScriptCache is given, every compilation goes through it, including the one done by process().
+ * If an OutputCache is given, every render that returns a WordplayOutput goes through it, including the one done
+ * by process(); outputs taken from it are reported to the listener as renders with CacheResult.HIT. Scripts passed
+ * to render() are looked up by identity, so they should be compiled once and kept; process() looks its output up
+ * by the text when there's no ScriptCache to hand back the same script, and only compiles it on a miss.
+ * If a WordplayListener is given, it's told about every compilation and render - see metrics.
+ */
 public class WordplayImpl implements Wordplay {
 
-    private final InjectionProcessor injectionProcessor = new InjectionProcessor();
-    private final CodeProcessor codeProcessor = new CodeProcessor();
-    private final ExpressionProcessor expressionProcessor = new ExpressionProcessor();
-    private final EmissionProcessor emissionProcessor = new EmissionProcessor();
+    // How many tasks a batch is split into per thread, so that threads which finish early can pick up more
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final ScriptCompiler scriptCompiler = new ScriptCompiler();
+    private final ScriptCache scriptCache;
+    private final OutputCache outputCache;
+    private final WordplayListener listener;
 
     private final HeaderPreprocessor headerPreprocessor = new HeaderPreprocessor();
 
-    private final Map<String, Boolean> booleanVariablesMap = new HashMap<>();
-    private final Map<String, String> variablesMap = new HashMap<>();
-    private final Map<String, String> injectedObjects = new HashMap<>();
+    private final WordplayContext context = new WordplayContext();
+
+    public WordplayImpl() {
+        this(null);
+    }
+
+    public WordplayImpl(ScriptCache scriptCache) {
+        this(scriptCache, null);
+    }
+
+    /**
+     * @param scriptCache may be null
+     * @param listener may be null, in which case nothing is measured
+     */
+    public WordplayImpl(ScriptCache scriptCache, WordplayListener listener) {
+        this(scriptCache, null, listener);
+    }
+
+    /**
+     * @param scriptCache may be null
+     * @param outputCache may be null
+     * @param listener may be null, in which case nothing is measured
+     */
+    public WordplayImpl(ScriptCache scriptCache, OutputCache outputCache, WordplayListener listener) {
+        this.scriptCache = scriptCache;
+        this.outputCache = outputCache;
+        this.listener = listener;
+    }
 
     @Override
     public WordplayOutput process(String input) throws WordplayException {
-        //region Process Code Section
-        // Stripped text | A list of internal injections in the key-value pair format | A list of emitted objects
-        Triplet<String, ArrayList<Pair<String, String>>, ArrayList<MetaObject>> codeProcessingOutput =
-                codeProcessor.parse(input);
-
-        // Get the internal injections that were processed and put them in the same map as external ones
-        if (codeProcessingOutput.getValue1() != null) {
-            for (Pair<String, String> injectionPair : codeProcessingOutput.getValue1()) {
-                injectedObjects.put(injectionPair.getValue0(), injectionPair.getValue1());
+        return process(input, context);
+    }
+
+    @Override
+    public WordplayOutput process(final String input, final WordplayContext context) throws WordplayException {
+        if (outputCache == null)
+            return renderUncached(compile(input), context, RenderMetrics.CacheResult.NOT_CACHED);
+        if (scriptCache != null)
+            return render(compile(input), context);
+
+        // Without a ScriptCache the script would be a new one every time, so the output is looked up by the text
+        // instead, and the script is only compiled if it has to be rendered
+        final boolean[] rendered = new boolean[1];
+        WordplayOutput output = outputCache.get(input, context, new OutputCache.SourceLoader() {
+            private CompiledScript script;
+
+            @Override
+            public CompiledScript compile() throws WordplayException {
+                script = WordplayImpl.this.compile(input);
+                return script;
+            }
+
+            @Override
+            public WordplayOutput render(boolean miss) throws WordplayException {
+                rendered[0] = true;
+                return renderUncached(script, context, miss ? RenderMetrics.CacheResult.MISS : RenderMetrics.CacheResult.NOT_CACHED);
+            }
+        });
+        if (!rendered[0])
+            reportHit(output);
+        return output;
+    }
+
+    /**
+     * Processes all the scripts in parallel, on a pool shared by all engines with one thread per core.
+     * @see #processAll(Collection, WordplayContext, ExecutorService)
+     */
+    @Override
+    public List<BatchResult> processAll(Collection<String> inputs, WordplayContext context) throws InterruptedException {
+        return processAll(inputs, context, DefaultPool.INSTANCE);
+    }
+
+    /**
+     * Processes all the scripts in parallel on the given executor.
+     * The results come in the order of the inputs, and a script that fails doesn't stop the others -
+     * its result just holds the exception instead of the output. Anything other than a WordplayException
+     * thrown while processing a script is wrapped in a WordplayProcessingException.
+     * The context is only read, so it's shared by all the tasks, but it must not be modified until this returns.
+     */
+    @Override
+    public List<BatchResult> processAll(Collection<String> inputs, final WordplayContext context, ExecutorService executor) throws InterruptedException {
+        final String[] scripts = inputs.toArray(new String[inputs.size()]);
+        final BatchResult[] results = new BatchResult[scripts.length];
+        if (scripts.length == 0)
+            return Collections.emptyList();
+
+        int threads = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        int taskCount = Math.min(scripts.length, threads * TASKS_PER_THREAD);
+        List<Callable<Void>> tasks = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            final int from = (int) ((long) scripts.length * i / taskCount);
+            final int to = (int) ((long) scripts.length * (i + 1) / taskCount);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int j = from; j < to; j++) {
+                        try {
+                            results[j] = new BatchResult(process(scripts[j], context));
+                        } catch (WordplayException e) {
+                            results[j] = new BatchResult(e);
+                        } catch (RuntimeException e) {
+                            // A script the parsers choke on is still just one bad script of the batch
+                            results[j] = new BatchResult(new WordplayProcessingException("Failed to process script " + j, e));
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // Anything other than a WordplayException is a bug, not a problem with the script
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new IllegalStateException(cause);
             }
         }
 
-        String processedCodeOutput = codeProcessingOutput.getValue0();   // Drop the code part, leave only data
-        List<MetaObject> metaObjects = codeProcessingOutput.getValue2();
-        //endregion
-
-        //region Injection
-        // Perform injection until no injection expressions are found
-        String processedInjectionOutput = processedCodeOutput;
-        do {
-            processedInjectionOutput = injectionProcessor.inject(processedInjectionOutput, injectedObjects);
-        } while (injectionProcessor.getExpressionsProcessedNumber() != 0);
-        //endregion
-
-        //region Processing
-        // Perform ternary/matching until no ternary/matching expressions are found
-        String processedExpressionOutput = processedInjectionOutput;
-        do {
-            processedExpressionOutput = expressionProcessor.process(processedExpressionOutput, booleanVariablesMap, variablesMap);
-        } while (expressionProcessor.getExpressionsProcessedNumber() != 0);
-        //endregion
-
-        //region Emission
-        String processedEmission = processedExpressionOutput;
-        List<Triplet<String, Integer, Map<String, String>>> anchoredObjectComponents = new ArrayList<>();
-        do {
-            Pair<String, List<Triplet<String, Integer, Map<String, String>>>> emissionOutput =
-                    emissionProcessor.processAnchoredObjects(processedEmission);
-            processedEmission = emissionOutput.getValue0();
-            anchoredObjectComponents.addAll(emissionOutput.getValue1());
-        } while (emissionProcessor.getExpressionsProcessedNumber() != 0);
-
-        Pair<String, List<AnchoredObject>> emissionFinalOutput =
-                emissionProcessor.constructAnchoredObjects(processedEmission, anchoredObjectComponents);
-        String processedFinalOutput = emissionFinalOutput.getValue0();
-        List<AnchoredObject> anchoredObjects = emissionFinalOutput.getValue1();
-        //endregion
-
-        return new WordplayOutput(processedFinalOutput, anchoredObjects, metaObjects);
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    @Override
+    public CompiledScript compile(String input) throws WordplayException {
+        return compile(input, input);
+    }
+
+    /**
+     * Compiles the script, or takes it from the cache if there is one and it has the given id.
+     */
+    @Override
+    public CompiledScript compile(String id, final String input) throws WordplayException {
+        if (scriptCache == null)
+            return scriptCompiler.compile(input, listener);
+
+        final boolean[] loaded = new boolean[1];
+        CompiledScript script = scriptCache.get(id, new ScriptCache.Loader() {
+            @Override
+            public CompiledScript load() throws WordplayException {
+                loaded[0] = true;
+                return scriptCompiler.compile(input, listener);
+            }
+        });
+
+        if (listener != null && !loaded[0])
+            listener.compiled(new CompileMetrics(true, input.length(), 0, 0, 0));
+        return script;
+    }
+
+    /**
+     * Folds everything set in the given context into the script, for values that stay the same for every render -
+     * those are then no longer looked up in the contexts the script is rendered with.
+     * Values missing from the static context are left to be looked up when rendering.
+     *
+     * @return a script with only the expressions that don't depend solely on the static values
+     */
+    @Override
+    public CompiledScript partiallyEvaluate(CompiledScript script, WordplayContext staticValues) throws WordplayException {
+        return PartialEvaluator.evaluate(script, staticValues);
+    }
+
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    public OutputCache getOutputCache() {
+        return outputCache;
+    }
+
+    public WordplayListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public WordplayOutput render(CompiledScript script) throws WordplayException {
+        return render(script, context);
+    }
+
+    @Override
+    public WordplayOutput render(final CompiledScript script, final WordplayContext context) throws WordplayException {
+        if (outputCache == null)
+            return renderUncached(script, context, RenderMetrics.CacheResult.NOT_CACHED);
+
+        final boolean[] rendered = new boolean[1];
+        WordplayOutput output = outputCache.get(script, context, new OutputCache.Loader() {
+            @Override
+            public WordplayOutput render(boolean miss) throws WordplayException {
+                rendered[0] = true;
+                return renderUncached(script, context, miss ? RenderMetrics.CacheResult.MISS : RenderMetrics.CacheResult.NOT_CACHED);
+            }
+        });
+        if (!rendered[0])
+            reportHit(output);
+        return output;
+    }
+
+    private WordplayOutput renderUncached(CompiledScript script, WordplayContext context,
+                                          RenderMetrics.CacheResult cacheResult) throws WordplayException {
+        TreeRenderer renderer = new TreeRenderer(context, script.getInjections());
+        if (listener == null)
+            return renderer.render(script);
+
+        long start = System.nanoTime();
+        WordplayOutput output = renderer.render(script);
+        listener.rendered(renderer.getMetrics(cacheResult, System.nanoTime() - start));
+        return output;
+    }
+
+    private void reportHit(WordplayOutput output) {
+        if (listener != null) {
+            listener.rendered(new RenderMetrics(RenderMetrics.CacheResult.HIT, 0, output.getTextSequence().length(),
+                    output.getAnchoredObjects().size(), 0, 0, 0));
+        }
+    }
+
+    /**
+     * Writes the text straight into the given Appendable, without building it in memory first.
+     * Meta objects can be taken from the script itself.
+     * @return anchored objects with positions relative to the first character written
+     */
+    @Override
+    public List<AnchoredObject> render(CompiledScript script, WordplayContext context, Appendable out) throws WordplayException, IOException {
+        TreeRenderer renderer = new TreeRenderer(context, script.getInjections());
+        if (listener == null)
+            return renderer.render(script, out);
+
+        long start = System.nanoTime();
+        List<AnchoredObject> anchoredObjects = renderer.render(script, out);
+        listener.rendered(renderer.getMetrics(RenderMetrics.CacheResult.NOT_CACHED, System.nanoTime() - start));
+        return anchoredObjects;
     }
 
     @Override
@@ -104,24 +309,27 @@ public class WordplayImpl implements Wordplay {
 
     @Override
     public void reset() {
-        booleanVariablesMap.clear();
-        variablesMap.clear();
-        injectedObjects.clear();
+        context.reset();
     }
 
     @Override
     public void setVariable(String var, boolean value) {
-        booleanVariablesMap.put(var, value);
+        context.setVariable(var, value);
     }
 
     @Override
     public void setVariable(String var, String value) {
-        variablesMap.put(var, value);
+        context.setVariable(var, value);
     }
 
     @Override
     public void inject(String id, String value) {
-        injectedObjects.put(id, value);
+        context.inject(id, value);
+    }
+
+    private static final class DefaultPool {
+        // Its threads are daemons, so it never keeps the JVM alive
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool();
     }
 
     public static void main(String[] args) throws Exception {
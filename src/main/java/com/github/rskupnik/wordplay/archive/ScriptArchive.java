@@ -0,0 +1,87 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.archive;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.internal.archive.ArchiveDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Scripts compiled ahead of time by ScriptArchiveWriter, together with their headers.
+ * Loading an archive doesn't parse anything - the trees are rebuilt straight from the binary form.
+ * An archive is immutable and safe to be shared between threads.
+ */
+public final class ScriptArchive {
+
+    private final Map<String, CompiledScript> scripts;
+    private final Map<String, Map<String, String>> headers;
+
+    private ScriptArchive(Map<String, CompiledScript> scripts, Map<String, Map<String, String>> headers) {
+        this.scripts = Collections.unmodifiableMap(scripts);
+        this.headers = headers;
+    }
+
+    /**
+     * Reads the archive from the buffer's current position, leaving the buffer itself untouched.
+     * @throws IOException if the buffer doesn't hold an archive or it was written by an incompatible version
+     */
+    public static ScriptArchive read(ByteBuffer buffer) throws IOException {
+        ArchiveDecoder decoder = ArchiveDecoder.decode(buffer);
+        return new ScriptArchive(decoder.getScripts(), decoder.getHeaders());
+    }
+
+    /**
+     * Memory-maps the file and reads the archive from it.
+     */
+    public static ScriptArchive read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public Set<String> getScriptIds() {
+        return scripts.keySet();
+    }
+
+    public boolean contains(String id) {
+        return scripts.containsKey(id);
+    }
+
+    public CompiledScript getScript(String id) {
+        CompiledScript script = scripts.get(id);
+        if (script == null)
+            throw new IllegalArgumentException("Unknown script: " + id);
+
+        return script;
+    }
+
+    public Map<String, String> getHeaders(String id) {
+        if (!scripts.containsKey(id))
+            throw new IllegalArgumentException("Unknown script: " + id);
+
+        return Collections.unmodifiableMap(headers.get(id));
+    }
+}
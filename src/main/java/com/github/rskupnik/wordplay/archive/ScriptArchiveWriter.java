@@ -0,0 +1,93 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.archive;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.archive.ArchiveEncoder;
+import com.github.rskupnik.wordplay.internal.compiler.ScriptCompiler;
+import com.github.rskupnik.wordplay.internal.preprocessors.HeaderPreprocessor;
+import com.github.rskupnik.wordplay.pack.StoryPack;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Compiles scripts ahead of time into a compact binary archive, to be loaded with ScriptArchive.
+ * Can be run from the command line to turn story packs into an archive:
+ * <pre>java -cp wordplay.jar com.github.rskupnik.wordplay.archive.ScriptArchiveWriter out.wpa chapter1.pack chapter2.pack</pre>
+ */
+public final class ScriptArchiveWriter {
+
+    private final ScriptCompiler scriptCompiler = new ScriptCompiler();
+    private final HeaderPreprocessor headerPreprocessor = new HeaderPreprocessor();
+    private final ArchiveEncoder encoder = new ArchiveEncoder();
+
+    public ScriptArchiveWriter add(String id, CompiledScript script, Map<String, String> headers) {
+        encoder.add(id, script, headers);
+        return this;
+    }
+
+    /**
+     * Compiles the script and extracts its headers.
+     */
+    public ScriptArchiveWriter add(String id, String input) throws WordplayException {
+        return add(id, scriptCompiler.compile(input), headerPreprocessor.process(input));
+    }
+
+    /**
+     * Adds every scene of the pack, with the scene's id.
+     */
+    public ScriptArchiveWriter addAll(StoryPack storyPack) throws WordplayException {
+        for (String sceneId : storyPack.getSceneIds()) {
+            add(sceneId, storyPack.compile(sceneId), storyPack.getHeaders(sceneId));
+        }
+        return this;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        encoder.writeTo(out);
+    }
+
+    public void writeTo(Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            writeTo(out);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ScriptArchiveWriter <archive> <pack>...");
+            System.exit(1);
+        }
+
+        Path[] packs = new Path[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            packs[i - 1] = Paths.get(args[i]);
+        }
+
+        StoryPack storyPack = StoryPack.open(packs);
+        new ScriptArchiveWriter().addAll(storyPack).writeTo(Paths.get(args[0]));
+        System.out.println("Compiled " + storyPack.getSceneIds().size() + " scenes into " + args[0]);
+    }
+}
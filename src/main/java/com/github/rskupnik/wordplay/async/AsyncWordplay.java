@@ -0,0 +1,207 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.async;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.Wordplay;
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+
+import java.util.concurrent.*;
+
+/**
+ * Renders on an executor of its own instead of the callers' threads, keeping the number of renders
+ * pending at once - running or waiting in the queue - under a limit. What happens to renders over the limit
+ * is decided by the RejectionPolicy, and every render can be given a time after which it's failed with
+ * a TimeoutException. A render that times out before it starts is never started, one that's already running
+ * is left to finish in the background, since rendering can't be interrupted, and still counts towards the limit.
+ * With the BLOCK policy, the time spent waiting for room under the limit counts towards the timeout too,
+ * so a caller given one is never blocked for longer.
+ *
+ * The context passed with a render must not be modified until the render is done.
+ */
+public final class AsyncWordplay {
+
+    // Fires the timeouts of all instances, the work it does is trivial
+    private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "wordplay-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Wordplay wordplay;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Semaphore pending;
+    private final RejectionPolicy rejectionPolicy;
+
+    /**
+     * Renders on a fixed number of threads of its own.
+     */
+    public AsyncWordplay(Wordplay wordplay, int threads, int maxPending, RejectionPolicy rejectionPolicy) {
+        this(wordplay, Executors.newFixedThreadPool(threads), maxPending, rejectionPolicy);
+    }
+
+    /**
+     * @param executor any executor, for example one from virtualThreadExecutor(), the limit is enforced here
+     */
+    public AsyncWordplay(Wordplay wordplay, ExecutorService executor, int maxPending, RejectionPolicy rejectionPolicy) {
+        if (maxPending <= 0)
+            throw new IllegalArgumentException("maxPending has to be positive");
+
+        this.wordplay = wordplay;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.pending = new Semaphore(maxPending);
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * @return an executor starting a virtual thread for every task
+     * @throws UnsupportedOperationException if the JVM doesn't have virtual threads
+     */
+    public static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available on this JVM", e);
+        }
+    }
+
+    public RenderFuture process(String input, WordplayContext context) {
+        return process(input, context, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param timeout 0 for none
+     */
+    public RenderFuture process(final String input, final WordplayContext context, long timeout, TimeUnit unit) {
+        return submit(new Callable<WordplayOutput>() {
+            @Override
+            public WordplayOutput call() throws Exception {
+                return wordplay.process(input, context);
+            }
+        }, timeout, unit);
+    }
+
+    public RenderFuture render(CompiledScript script, WordplayContext context) {
+        return render(script, context, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param timeout 0 for none
+     */
+    public RenderFuture render(final CompiledScript script, final WordplayContext context, long timeout, TimeUnit unit) {
+        return submit(new Callable<WordplayOutput>() {
+            @Override
+            public WordplayOutput call() throws Exception {
+                return wordplay.render(script, context);
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * @return the number of renders submitted and not finished yet
+     */
+    public int getPendingCount() {
+        return maxPending - pending.availablePermits();
+    }
+
+    /**
+     * Stops accepting renders, the pending ones are still finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private RenderFuture submit(Callable<WordplayOutput> render, long timeout, TimeUnit unit) {
+        final RenderFuture future = new RenderFuture(render);
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = acquire(timeout, unit);
+        } catch (TimeoutException e) {
+            future.fail(e);
+            return future;
+        }
+
+        if (!acquired) {
+            if (rejectionPolicy == RejectionPolicy.CALLER_RUNS) {
+                future.run();
+            } else {
+                future.fail(new RejectedExecutionException("Too many pending renders"));
+            }
+            return future;
+        }
+
+        if (timeout > 0) {
+            long left = unit.toNanos(timeout) - (System.nanoTime() - start);
+            future.setTimeout(timeouts.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    future.fail(new TimeoutException("Render not finished in time"));
+                }
+            }, Math.max(left, 0), TimeUnit.NANOSECONDS));
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.run();   // Does nothing if it timed out in the queue
+                    } finally {
+                        pending.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            future.fail(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return false if the render is over the limit, or the caller was interrupted while waiting
+     * @throws TimeoutException if the caller was blocked for the whole timeout
+     */
+    private boolean acquire(long timeout, TimeUnit unit) throws TimeoutException {
+        if (rejectionPolicy != RejectionPolicy.BLOCK)
+            return pending.tryAcquire();
+
+        try {
+            if (timeout <= 0) {
+                pending.acquire();
+            } else if (!pending.tryAcquire(timeout, unit)) {
+                throw new TimeoutException("No room for the render in time");
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.async;
+
+/**
+ * What AsyncWordplay does with a render submitted while as many are already pending as it allows.
+ */
+public enum RejectionPolicy {
+
+    /**
+     * Fail the render right away with a RejectedExecutionException.
+     */
+    ABORT,
+
+    /**
+     * Render on the calling thread, which slows the caller down to the pace of the renders.
+     */
+    CALLER_RUNS,
+
+    /**
+     * Block the calling thread until one of the pending renders finishes, or until the timeout of the render
+     * runs out, failing it with a TimeoutException.
+     */
+    BLOCK
+}
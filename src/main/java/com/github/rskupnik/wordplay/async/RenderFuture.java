@@ -0,0 +1,109 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.async;
+
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The output of a render submitted to AsyncWordplay, which can be waited for or listened to.
+ * It fails with a TimeoutException if the render didn't finish in time,
+ * and with a RejectedExecutionException if it was rejected right away.
+ */
+public final class RenderFuture extends FutureTask<WordplayOutput> {
+
+    public interface Callback {
+        void onSuccess(WordplayOutput output);
+
+        /**
+         * @param cause what the render threw, a TimeoutException, a RejectedExecutionException
+         *              or a CancellationException
+         */
+        void onFailure(Throwable cause);
+    }
+
+    private final List<Callback> callbacks = new ArrayList<>();
+    private boolean callbacksRun;
+    private Future<?> timeout;
+
+    RenderFuture(Callable<WordplayOutput> render) {
+        super(render);
+    }
+
+    /**
+     * Calls the callback once the render is done - right away, on this thread, if it is already.
+     * Otherwise it's called on the thread that finished the render.
+     */
+    public void addCallback(Callback callback) {
+        synchronized (callbacks) {
+            if (!callbacksRun) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        call(callback);
+    }
+
+    void fail(Throwable cause) {
+        setException(cause);
+    }
+
+    synchronized void setTimeout(Future<?> timeout) {
+        this.timeout = timeout;
+        if (isDone())
+            timeout.cancel(false);
+    }
+
+    @Override
+    protected void done() {
+        synchronized (this) {
+            if (timeout != null)
+                timeout.cancel(false);
+        }
+
+        List<Callback> toRun;
+        synchronized (callbacks) {
+            callbacksRun = true;
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for (Callback callback : toRun) {
+            call(callback);
+        }
+    }
+
+    private void call(Callback callback) {
+        WordplayOutput output;
+        try {
+            output = get();
+        } catch (ExecutionException e) {
+            callback.onFailure(e.getCause());
+            return;
+        } catch (Exception e) {
+            callback.onFailure(e);     // Cancelled, interrupted can't happen once it's done
+            return;
+        }
+        callback.onSuccess(output);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.cache;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.ReadSet;
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.cache.ConcurrentLruMap;
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of rendered outputs, safe to be shared between threads.
+ * Outputs are keyed by the script, or the text it was compiled from, and the values its read set has in the context, so all contexts
+ * that agree on the few variables a script uses share a single output, whatever else they hold.
+ * Outputs are immutable, so the same instance is returned to everyone.
+ *
+ * Renders whose read set can't be told up front - see ReadSet.getValues() - are not cached and
+ * don't count as hits or misses. Failed renders are not cached either.
+ */
+public final class OutputCache {
+
+    public interface Loader {
+        /**
+         * @param miss true if the output is rendered because it wasn't in the cache and is going to be put there,
+         *             false if it can't be cached at all
+         */
+        WordplayOutput render(boolean miss) throws WordplayException;
+    }
+
+    /**
+     * Compiles and renders a script known only by its text, see get(String, WordplayContext, SourceLoader).
+     */
+    public interface SourceLoader extends Loader {
+        CompiledScript compile() throws WordplayException;
+
+        /**
+         * Renders the script last returned by compile().
+         */
+        @Override
+        WordplayOutput render(boolean miss) throws WordplayException;
+    }
+
+    private final ConcurrentLruMap<Key, WordplayOutput> outputs;
+    private final ConcurrentLruMap<String, ReadSet> readSets;     // By the text of scripts looked up by it
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong uncacheableCount = new AtomicLong();
+
+    public OutputCache(int maximumSize) {
+        this.outputs = new ConcurrentLruMap<>(maximumSize);
+        this.readSets = new ConcurrentLruMap<>(maximumSize);
+    }
+
+    /**
+     * Returns the output cached for the values of the script's read set in the context, rendering
+     * and caching it on a miss. As with ScriptCache, two threads missing the same key at once may both render it.
+     * The script is compared by identity, so this only pays off for scripts that are compiled once and kept,
+     * see the other get() for scripts compiled anew on every render.
+     */
+    public WordplayOutput get(CompiledScript script, WordplayContext context, Loader loader) throws WordplayException {
+        return get((Object) script, script, context, loader);
+    }
+
+    /**
+     * Same as the other get(), but keyed by the text of the script rather than the script itself, so a text that's
+     * compiled anew every time, as process() does without a ScriptCache, still hits. The read set of the text is
+     * kept as well, so the script is only compiled when its output has to be rendered.
+     */
+    public WordplayOutput get(String source, WordplayContext context, SourceLoader loader) throws WordplayException {
+        ReadSet readSet = readSets.get(source);
+        Object[] values = readSet != null ? readSet.getValues(context) : null;
+        if (values != null) {
+            WordplayOutput output = outputs.get(new Key(source, values));
+            if (output != null) {
+                hitCount.incrementAndGet();
+                return output;
+            }
+        }
+
+        CompiledScript script = loader.compile();
+        if (readSet == null)
+            readSets.putIfAbsent(source, script.getReadSet());
+        return get(source, script, context, loader);
+    }
+
+    private WordplayOutput get(Object id, CompiledScript script, WordplayContext context, Loader loader) throws WordplayException {
+        Object[] values = script.getReadSet().getValues(context);
+        if (values == null) {
+            uncacheableCount.incrementAndGet();
+            return loader.render(false);
+        }
+
+        Key key = new Key(id, values);
+        WordplayOutput output = outputs.get(key);
+        if (output != null) {
+            hitCount.incrementAndGet();
+            return output;
+        }
+
+        missCount.incrementAndGet();
+        long start = System.nanoTime();
+        output = loader.render(true);
+        totalLoadTime.addAndGet(System.nanoTime() - start);
+        loadCount.incrementAndGet();
+
+        WordplayOutput present = outputs.putIfAbsent(key, output);
+        return present != null ? present : output;
+    }
+
+    public void invalidateAll() {
+        outputs.clear();
+        readSets.clear();
+    }
+
+    public int size() {
+        return outputs.size();
+    }
+
+    /**
+     * @return the number of renders that couldn't be cached, see ReadSet.getValues()
+     */
+    public long getUncacheableCount() {
+        return uncacheableCount.get();
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hitCount.get(), missCount.get(), outputs.getEvictionCount(),
+                loadCount.get(), totalLoadTime.get());
+    }
+
+    // Either a CompiledScript, compared by identity, or the source text it was compiled from
+    private static final class Key {
+
+        private final Object script;
+        private final Object[] values;
+        private final int hash;
+
+        private Key(Object script, Object[] values) {
+            this.script = script;
+            this.values = values;
+            this.hash = 31 * script.hashCode() + Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key key = (Key) o;
+            return hash == key.hash && script.equals(key.script) && Arrays.equals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.cache;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.cache.ConcurrentLruMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of compiled scripts, safe to be shared between threads.
+ * Scripts are keyed either by their content or by an id chosen by the caller, such as a scene name.
+ * The least recently used scripts are evicted once the maximum size is reached.
+ */
+public final class ScriptCache {
+
+    public interface Loader {
+        CompiledScript load() throws WordplayException;
+    }
+
+    private final ConcurrentLruMap<String, CompiledScript> scripts;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    public ScriptCache(int maximumSize) {
+        this.scripts = new ConcurrentLruMap<>(maximumSize);
+    }
+
+    /**
+     * Returns the script cached under the given key, loading and caching it on a miss.
+     * No lock is held while loading, so two threads missing the same key at once
+     * may both load it - only one of the results is kept.
+     */
+    public CompiledScript get(String key, Loader loader) throws WordplayException {
+        CompiledScript script = scripts.get(key);
+        if (script != null) {
+            hitCount.incrementAndGet();
+            return script;
+        }
+
+        missCount.incrementAndGet();
+        long start = System.nanoTime();
+        script = loader.load();
+        totalLoadTime.addAndGet(System.nanoTime() - start);
+        loadCount.incrementAndGet();
+
+        CompiledScript present = scripts.putIfAbsent(key, script);
+        return present != null ? present : script;
+    }
+
+    /**
+     * @return the cached script or null, without loading anything or affecting the statistics
+     */
+    public CompiledScript getIfPresent(String key) {
+        return scripts.get(key);
+    }
+
+    public void invalidate(String key) {
+        scripts.remove(key);
+    }
+
+    public void invalidateAll() {
+        scripts.clear();
+    }
+
+    public int size() {
+        return scripts.size();
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hitCount.get(), missCount.get(), scripts.getEvictionCount(),
+                loadCount.get(), totalLoadTime.get());
+    }
+}
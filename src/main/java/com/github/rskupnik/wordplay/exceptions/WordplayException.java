@@ -18,4 +18,15 @@
 package com.github.rskupnik.wordplay.exceptions;
 
 public class WordplayException extends Exception {
+
+    public WordplayException() {
+    }
+
+    public WordplayException(String message) {
+        super(message);
+    }
+
+    public WordplayException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
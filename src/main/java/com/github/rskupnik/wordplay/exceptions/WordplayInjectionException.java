@@ -18,4 +18,11 @@
 package com.github.rskupnik.wordplay.exceptions;
 
 public class WordplayInjectionException extends WordplayException {
+
+    public WordplayInjectionException() {
+    }
+
+    public WordplayInjectionException(String message) {
+        super(message);
+    }
 }
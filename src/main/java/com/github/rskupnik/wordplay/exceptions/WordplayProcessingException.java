@@ -18,4 +18,15 @@
 package com.github.rskupnik.wordplay.exceptions;
 
 public class WordplayProcessingException extends WordplayException {
+
+    public WordplayProcessingException() {
+    }
+
+    public WordplayProcessingException(String message) {
+        super(message);
+    }
+
+    public WordplayProcessingException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
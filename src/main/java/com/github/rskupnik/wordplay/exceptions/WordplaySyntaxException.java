@@ -18,4 +18,11 @@
 package com.github.rskupnik.wordplay.exceptions;
 
 public class WordplaySyntaxException extends WordplayException {
+
+    public WordplaySyntaxException() {
+    }
+
+    public WordplaySyntaxException(String message) {
+        super(message);
+    }
 }
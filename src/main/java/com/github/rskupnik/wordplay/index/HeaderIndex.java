@@ -0,0 +1,155 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.index;
+
+import com.github.rskupnik.wordplay.archive.ScriptArchive;
+import com.github.rskupnik.wordplay.internal.preprocessors.HeaderPreprocessor;
+import com.github.rskupnik.wordplay.pack.StoryPack;
+
+import java.util.*;
+
+/**
+ * Headers of many scenes, indexed by key and value, so that scenes can be looked up by their headers
+ * without extracting them again - for example all the scenes with "chapter 3" or with a "tag" starting with "combat".
+ * Scenes can be added, replaced and removed at any time.
+ *
+ * All the methods are synchronized, and the lookups return copies, so an index is safe to be shared between threads.
+ */
+public final class HeaderIndex {
+
+    private static final HeaderPreprocessor headerPreprocessor = new HeaderPreprocessor();
+
+    private final Map<String, Map<String, String>> headers = new LinkedHashMap<>();
+
+    // Key -> value -> ids of the scenes with that header, values sorted for prefix lookups
+    private final Map<String, TreeMap<String, Set<String>>> postings = new HashMap<>();
+
+    /**
+     * Indexes the headers of the scene, replacing whatever was indexed for it before.
+     */
+    public synchronized void put(String sceneId, Map<String, String> sceneHeaders) {
+        remove(sceneId);
+
+        Map<String, String> copy = Collections.unmodifiableMap(new LinkedHashMap<>(sceneHeaders));
+        headers.put(sceneId, copy);
+        for (Map.Entry<String, String> header : copy.entrySet()) {
+            TreeMap<String, Set<String>> values = postings.get(header.getKey());
+            if (values == null) {
+                values = new TreeMap<>();
+                postings.put(header.getKey(), values);
+            }
+
+            Set<String> sceneIds = values.get(header.getValue());
+            if (sceneIds == null) {
+                sceneIds = new LinkedHashSet<>();
+                values.put(header.getValue(), sceneIds);
+            }
+            sceneIds.add(sceneId);
+        }
+    }
+
+    /**
+     * Extracts the headers from the script and indexes them.
+     */
+    public void put(String sceneId, String input) {
+        put(sceneId, headerPreprocessor.process(input));
+    }
+
+    /**
+     * Indexes every scene of the pack, decoding only their header sections.
+     */
+    public void putAll(StoryPack storyPack) {
+        for (String sceneId : storyPack.getSceneIds()) {
+            put(sceneId, storyPack.getHeaders(sceneId));
+        }
+    }
+
+    public void putAll(ScriptArchive archive) {
+        for (String scriptId : archive.getScriptIds()) {
+            put(scriptId, archive.getHeaders(scriptId));
+        }
+    }
+
+    public synchronized void remove(String sceneId) {
+        Map<String, String> removed = headers.remove(sceneId);
+        if (removed == null)
+            return;
+
+        for (Map.Entry<String, String> header : removed.entrySet()) {
+            TreeMap<String, Set<String>> values = postings.get(header.getKey());
+            Set<String> sceneIds = values.get(header.getValue());
+            sceneIds.remove(sceneId);
+            if (sceneIds.isEmpty())
+                values.remove(header.getValue());
+            if (values.isEmpty())
+                postings.remove(header.getKey());
+        }
+    }
+
+    public synchronized boolean contains(String sceneId) {
+        return headers.containsKey(sceneId);
+    }
+
+    public synchronized int size() {
+        return headers.size();
+    }
+
+    /**
+     * @return the indexed headers of the scene or null if it's not in the index
+     */
+    public synchronized Map<String, String> getHeaders(String sceneId) {
+        return headers.get(sceneId);
+    }
+
+    /**
+     * @return ids of the scenes having the header with exactly that value
+     */
+    public synchronized Set<String> find(String key, String value) {
+        TreeMap<String, Set<String>> values = postings.get(key);
+        if (values == null)
+            return Collections.emptySet();
+
+        Set<String> sceneIds = values.get(value);
+        return sceneIds != null ? new LinkedHashSet<>(sceneIds) : Collections.<String>emptySet();
+    }
+
+    /**
+     * @return ids of the scenes having the header with a value starting with the prefix, ordered by value
+     */
+    public synchronized Set<String> findByPrefix(String key, String prefix) {
+        TreeMap<String, Set<String>> values = postings.get(key);
+        if (values == null)
+            return Collections.emptySet();
+
+        Set<String> output = new LinkedHashSet<>();
+        for (Map.Entry<String, Set<String>> entry : values.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix))
+                break;
+
+            output.addAll(entry.getValue());
+        }
+        return output;
+    }
+
+    /**
+     * @return ids of the scenes having the header, no matter its value
+     */
+    public Set<String> findByKey(String key) {
+        return findByPrefix(key, "");
+    }
+}
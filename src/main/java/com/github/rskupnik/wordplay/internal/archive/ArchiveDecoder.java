@@ -0,0 +1,230 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.archive;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.internal.tree.*;
+import com.github.rskupnik.wordplay.output.MetaList;
+import com.github.rskupnik.wordplay.output.MetaMap;
+import com.github.rskupnik.wordplay.output.MetaObject;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.github.rskupnik.wordplay.internal.archive.ArchiveFormat.*;
+
+/**
+ * Reads scripts in the format described in ArchiveFormat straight from a buffer, which may be memory-mapped.
+ * Every string is decoded once and shared by all the scripts using it.
+ */
+public final class ArchiveDecoder {
+
+    private final ByteBuffer buffer;
+    private String[] strings;
+    private byte[] scratch = new byte[256];
+
+    private final Map<String, CompiledScript> scripts = new LinkedHashMap<>();
+    private final Map<String, Map<String, String>> headers = new HashMap<>();
+
+    private ArchiveDecoder(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();    // Reading moves the position, the caller's buffer stays as it was
+    }
+
+    public static ArchiveDecoder decode(ByteBuffer buffer) throws IOException {
+        ArchiveDecoder decoder = new ArchiveDecoder(buffer);
+        try {
+            decoder.decode();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            throw new IOException("Corrupted script archive", e);
+        }
+        return decoder;
+    }
+
+    /**
+     * @return scripts by id, in the order they were written
+     */
+    public Map<String, CompiledScript> getScripts() {
+        return scripts;
+    }
+
+    public Map<String, Map<String, String>> getHeaders() {
+        return headers;
+    }
+
+    private void decode() throws IOException {
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a script archive");
+
+        int version = buffer.get() & 0xFF;
+        if (version != VERSION)
+            throw new IOException("Unsupported script archive version: " + version);
+
+        strings = new String[readCount()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readUtf8(readCount());
+        }
+
+        int scriptCount = readCount();
+        for (int i = 0; i < scriptCount; i++) {
+            String id = readString();
+            Node[] nodes = new Node[readCount()];
+            for (int j = 0; j < nodes.length; j++) {
+                nodes[j] = readNode(nodes, j);
+            }
+            Node root = child(nodes, nodes.length);
+
+            int injectionCount = readCount();
+            Map<String, Node> injections = new HashMap<>(capacity(injectionCount));
+            for (int j = 0; j < injectionCount; j++) {
+                injections.put(readString(), child(nodes, nodes.length));
+            }
+
+            int metaObjectCount = readCount();
+            List<MetaObject> metaObjects = new ArrayList<>(metaObjectCount);
+            for (int j = 0; j < metaObjectCount; j++) {
+                byte kind = buffer.get();
+                String metaId = readString();
+                if (kind == META_MAP) {
+                    metaObjects.add(new MetaMap(metaId, readMap()));
+                } else if (kind == META_LIST) {
+                    int size = readCount();
+                    List<String> data = new ArrayList<>(size);
+                    for (int k = 0; k < size; k++) {
+                        data.add(readString());
+                    }
+                    metaObjects.add(new MetaList(metaId, data));
+                } else {
+                    throw new IOException("Unknown meta object kind: " + kind);
+                }
+            }
+
+            scripts.put(id, new CompiledScript(root, injections, metaObjects));
+            headers.put(id, readMap());
+        }
+    }
+
+    private Node readNode(Node[] nodes, int decoded) throws IOException {
+        byte kind = buffer.get();
+        switch (kind) {
+            case LITERAL:
+                return new LiteralNode(readString());
+            case SEQUENCE: {
+                int size = readCount();
+                List<Node> children = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    children.add(child(nodes, decoded));
+                }
+                return new SequenceNode(children);
+            }
+            case INJECTION: {
+                String id = readString();
+                return new InjectionNode(id, readOptional(nodes, decoded));
+            }
+            case TERNARY:
+                return new TernaryNode(child(nodes, decoded), child(nodes, decoded), child(nodes, decoded));
+            case MATCHING: {
+                Node variable = child(nodes, decoded);
+                int size = readCount();
+                List<String> values = new ArrayList<>(size);
+                List<Node> payloads = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(readString());
+                    payloads.add(child(nodes, decoded));
+                }
+                return new MatchingNode(variable, values, payloads, readOptional(nodes, decoded));
+            }
+            case ANCHORED: {
+                Map<String, String> parameters = readMap();
+                return new AnchoredNode(parameters, child(nodes, decoded));
+            }
+            default:
+                throw new IOException("Unknown node kind: " + kind);
+        }
+    }
+
+    private Node readOptional(Node[] nodes, int decoded) throws IOException {
+        int index = readVarint();
+        return index != 0 ? child(nodes, index - 1, decoded) : null;
+    }
+
+    private Node child(Node[] nodes, int decoded) throws IOException {
+        return child(nodes, readVarint(), decoded);
+    }
+
+    /**
+     * Nodes are written children first, so a node can only refer to those decoded before it.
+     * Anything else - itself, one further on or one that isn't there - means the archive is corrupted.
+     */
+    private Node child(Node[] nodes, int index, int decoded) throws IOException {
+        if (index < 0 || index >= decoded)
+            throw new IOException("Corrupted script archive: node " + index + " referred to with " + decoded + " decoded");
+
+        return nodes[index];
+    }
+
+    private Map<String, String> readMap() throws IOException {
+        int size = readCount();
+        Map<String, String> map = new LinkedHashMap<>(capacity(size));
+        for (int i = 0; i < size; i++) {
+            map.put(readString(), readString());
+        }
+        return map;
+    }
+
+    private String readString() {
+        return strings[readVarint()];
+    }
+
+    private String readUtf8(int length) {
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the number of things that follow, each taking at least a byte, so that a corrupted count
+     * fails right away instead of allocating room for billions of them first.
+     */
+    private int readCount() throws IOException {
+        int count = readVarint();
+        if (count < 0 || count > buffer.remaining())
+            throw new IOException("Corrupted script archive: count of " + count + " with " + buffer.remaining() + " bytes left");
+
+        return count;
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+            if (shift == 28)
+                throw new IndexOutOfBoundsException("Varint too long");
+        }
+    }
+
+    private static int capacity(int size) {
+        return size * 4 / 3 + 1;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.archive;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.tree.*;
+import com.github.rskupnik.wordplay.output.MetaList;
+import com.github.rskupnik.wordplay.output.MetaMap;
+import com.github.rskupnik.wordplay.output.MetaObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.github.rskupnik.wordplay.internal.archive.ArchiveFormat.*;
+
+/**
+ * Writes scripts in the format described in ArchiveFormat.
+ * Scripts are encoded as they're added, the string table is only known once all of them are,
+ * so it's put in front of them when writing the whole archive out.
+ */
+public final class ArchiveEncoder {
+
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private final ByteArrayOutputStream scripts = new ByteArrayOutputStream();
+    private int scriptCount;
+
+    public void add(String id, CompiledScript script, Map<String, String> headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, string(id));
+
+        NodeTable nodes = new NodeTable();
+        int root = nodes.add(script.getRoot());
+        Map<Integer, Integer> injections = new LinkedHashMap<>();
+        for (Map.Entry<String, Node> injection : script.getInjections().entrySet()) {
+            injections.put(string(injection.getKey()), nodes.add(injection.getValue()));
+        }
+
+        writeVarint(out, nodes.count);
+        append(nodes.out, out);
+        writeVarint(out, root);
+        writeVarint(out, injections.size());
+        for (Map.Entry<Integer, Integer> injection : injections.entrySet()) {
+            writeVarint(out, injection.getKey());
+            writeVarint(out, injection.getValue());
+        }
+
+        writeVarint(out, script.getMetaObjects().size());
+        for (MetaObject metaObject : script.getMetaObjects()) {
+            if (metaObject instanceof MetaMap) {
+                out.write(META_MAP);
+                writeVarint(out, string(metaObject.getId()));
+                writeMap(out, ((MetaMap) metaObject).getData());
+            } else {
+                out.write(META_LIST);
+                writeVarint(out, string(metaObject.getId()));
+                List<String> data = ((MetaList) metaObject).getData();
+                writeVarint(out, data.size());
+                for (String value : data) {
+                    writeVarint(out, string(value));
+                }
+            }
+        }
+
+        writeMap(out, headers != null ? headers : Collections.<String, String>emptyMap());
+
+        append(out, scripts);
+        scriptCount++;
+    }
+
+    public void writeTo(OutputStream output) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC >>> 24);
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+
+        writeVarint(out, strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        writeVarint(out, scriptCount);
+        out.writeTo(output);
+        scripts.writeTo(output);
+    }
+
+    private void writeMap(ByteArrayOutputStream out, Map<String, String> map) {
+        writeVarint(out, map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeVarint(out, string(entry.getKey()));
+            writeVarint(out, string(entry.getValue()));
+        }
+    }
+
+    private int string(String string) {
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.put(string, index);
+        }
+        return index;
+    }
+
+    private static void append(ByteArrayOutputStream from, ByteArrayOutputStream to) {
+        try {
+            from.writeTo(to);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);    // Never thrown, it's all in memory
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Writes every distinct node of a script once, children first, and remembers their indexes.
+     */
+    private final class NodeTable implements NodeVisitor<Integer> {
+
+        private final Map<Node, Integer> indexes = new IdentityHashMap<>();
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int count;
+
+        private int add(Node node) {
+            Integer index = indexes.get(node);
+            if (index != null)
+                return index;
+
+            try {
+                index = node.accept(this);
+            } catch (WordplayException e) {
+                throw new IllegalStateException(e);    // Never thrown, encoding doesn't evaluate anything
+            }
+            indexes.put(node, index);
+            return index;
+        }
+
+        private int optional(Node node) {
+            return node != null ? add(node) + 1 : 0;
+        }
+
+        private int next() {
+            return count++;
+        }
+
+        @Override
+        public Integer visitLiteral(LiteralNode node) {
+            out.write(LITERAL);
+            writeVarint(out, string(node.getText()));
+            return next();
+        }
+
+        @Override
+        public Integer visitSequence(SequenceNode node) {
+            int[] children = new int[node.getChildren().size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = add(node.getChildren().get(i));
+            }
+
+            out.write(SEQUENCE);
+            writeVarint(out, children.length);
+            for (int child : children) {
+                writeVarint(out, child);
+            }
+            return next();
+        }
+
+        @Override
+        public Integer visitInjection(InjectionNode node) {
+            int target = optional(node.getTarget());
+
+            out.write(INJECTION);
+            writeVarint(out, string(node.getId()));
+            writeVarint(out, target);
+            return next();
+        }
+
+        @Override
+        public Integer visitTernary(TernaryNode node) {
+            int variable = add(node.getVariable());
+            int whenTrue = add(node.getWhenTrue());
+            int whenFalse = add(node.getWhenFalse());
+
+            out.write(TERNARY);
+            writeVarint(out, variable);
+            writeVarint(out, whenTrue);
+            writeVarint(out, whenFalse);
+            return next();
+        }
+
+        @Override
+        public Integer visitMatching(MatchingNode node) {
+            int variable = add(node.getVariable());
+            int[] payloads = new int[node.getPayloads().size()];
+            for (int i = 0; i < payloads.length; i++) {
+                payloads[i] = add(node.getPayloads().get(i));
+            }
+            int fallback = optional(node.getFallback());
+
+            out.write(MATCHING);
+            writeVarint(out, variable);
+            writeVarint(out, payloads.length);
+            for (int i = 0; i < payloads.length; i++) {
+                writeVarint(out, string(node.getValues().get(i)));
+                writeVarint(out, payloads[i]);
+            }
+            writeVarint(out, fallback);
+            return next();
+        }
+
+        @Override
+        public Integer visitAnchored(AnchoredNode node) {
+            int content = add(node.getContent());
+
+            out.write(ANCHORED);
+            writeMap(out, node.getParameters());
+            writeVarint(out, content);
+            return next();
+        }
+    }
+}
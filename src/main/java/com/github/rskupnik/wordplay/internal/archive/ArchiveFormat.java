@@ -0,0 +1,53 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.archive;
+
+/**
+ * Layout of a script archive, all numbers but the magic number being unsigned varints:
+ *
+ *   magic number (4 bytes), version (1 byte)
+ *   string count, then every string as its UTF-8 length and bytes
+ *   script count, then for every script:
+ *     id, node count, the nodes, root node,
+ *     injection count, then name and node of each,
+ *     meta object count, then kind, id, size and the entries of each,
+ *     header count, then key and value of each
+ *
+ * Strings are stored once for the whole archive and referred to by index.
+ * Nodes are stored once per script, children before their parents, and referred to by index,
+ * so nodes shared between the tree and linked injections stay shared after loading.
+ * Optional references are stored as index + 1, with 0 meaning there's none.
+ */
+final class ArchiveFormat {
+
+    static final int MAGIC = 0x57504C59;     // "WPLY"
+    static final int VERSION = 1;
+
+    static final byte LITERAL = 0;
+    static final byte SEQUENCE = 1;
+    static final byte INJECTION = 2;
+    static final byte TERNARY = 3;
+    static final byte MATCHING = 4;
+    static final byte ANCHORED = 5;
+
+    static final byte META_MAP = 0;
+    static final byte META_LIST = 1;
+
+    private ArchiveFormat() {
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded map that evicts the least recently used entries.
+ * The entries are spread over a number of independently locked segments,
+ * each of them an access-ordered LinkedHashMap, so that threads working on
+ * different keys rarely wait for each other. Recency is tracked per segment,
+ * which makes the eviction order approximate, but never lets the map grow over the bound.
+ */
+public final class ConcurrentLruMap<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruMap(int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("maximumSize has to be positive");
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 <= maximumSize)
+            segmentCount *= 2;
+
+        segments = new Segment[segmentCount];
+        segmentMask = segmentCount - 1;
+        int remaining = maximumSize;
+        for (int i = 0; i < segmentCount; i++) {
+            int capacity = remaining / (segmentCount - i);
+            segments[i] = new Segment<>(capacity, evictionCount);
+            remaining -= capacity;
+        }
+    }
+
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * @return the value that was already present - in which case it is kept - or null if the new one was stored
+     */
+    public V putIfAbsent(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V present = segment.get(key);
+            if (present != null)
+                return present;
+
+            segment.put(key, value);
+            return null;
+        }
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        // Spread the bits, so that hashes differing only in the upper bits end up in different segments
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h ^= (h >>> 7);
+        return segments[h & segmentMask];
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private final int capacity;
+        private final AtomicLong evictionCount;
+
+        Segment(int capacity, AtomicLong evictionCount) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictionCount = evictionCount;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() <= capacity)
+                return false;
+
+            evictionCount.incrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.collect;
+
+import com.github.rskupnik.wordplay.internal.cache.ConcurrentLruMap;
+
+import java.util.*;
+
+/**
+ * An immutable map of strings kept as a single array of keys and values, one after another.
+ * Meant for the few entries anchored objects and meta maps usually have - looking a key up
+ * is a linear scan, which for a handful of entries is faster than hashing, and there are
+ * no entry objects or tables to allocate. Keys are canonicalized, since the same few keys come up over and over,
+ * through a bounded map of their own rather than String.intern(), which would keep whatever scripts use forever.
+ * Iteration follows the order of the map it was created from.
+ * Values that are integers or booleans are parsed once, when the map is created, and kept next to the text
+ * as plain ints and bits, so that reading them again and again neither parses nor allocates anything.
+ */
+public final class FlatMap extends AbstractMap<String, String> {
+
+    public static final FlatMap EMPTY = new FlatMap(new String[0], null, null, null);
+
+    // Sets of up to this many entries are shared by shared(), larger ones are rarely repeated
+    private static final int MAX_SHARED_SIZE = 8;
+    // Keyed by the entries in order, so that maps equal but ordered differently are not shared
+    private static final ConcurrentLruMap<List<String>, FlatMap> sharedMaps = new ConcurrentLruMap<>(4096);
+    private static final ConcurrentLruMap<String, String> sharedKeys = new ConcurrentLruMap<>(4096);
+
+    private final String[] entries;
+    private final int[] ints;       // By entry, null if none of the values is an integer
+    private final long[] intBits;   // Which entries have an integer value, null together with ints
+    private final long[] trueBits;  // Which entries have a value of "true", null if none does
+    private int hash;
+
+    private FlatMap(String[] entries, int[] ints, long[] intBits, long[] trueBits) {
+        this.entries = entries;
+        this.ints = ints;
+        this.intBits = intBits;
+        this.trueBits = trueBits;
+    }
+
+    /**
+     * @return the map itself if it's a FlatMap already, or a copy of it otherwise
+     */
+    public static FlatMap of(Map<String, String> map) {
+        if (map instanceof FlatMap)
+            return (FlatMap) map;
+        if (map.isEmpty())
+            return EMPTY;
+
+        int size = map.size();
+        String[] entries = new String[size * 2];
+        int[] ints = null;
+        long[] intBits = null;
+        long[] trueBits = null;
+        int i = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            int index = i / 2;
+            Integer value = Numbers.parseInt(entry.getValue());
+            if (value != null) {
+                if (ints == null) {
+                    ints = new int[size];
+                    intBits = new long[(size + 63) >>> 6];
+                }
+                ints[index] = value;
+                intBits[index >>> 6] |= 1L << index;
+            } else if (Boolean.parseBoolean(entry.getValue())) {
+                if (trueBits == null)
+                    trueBits = new long[(size + 63) >>> 6];
+                trueBits[index >>> 6] |= 1L << index;
+            }
+            entries[i++] = sharedKey(entry.getKey());
+            entries[i++] = entry.getValue();
+        }
+        return new FlatMap(entries, ints, intBits, trueBits);
+    }
+
+    /**
+     * Like of(), but returns the very same instance for small maps with the same entries in the same order,
+     * so that the many objects created with the same parameters don't each keep their own copy.
+     */
+    public static FlatMap shared(Map<String, String> map) {
+        FlatMap flatMap = of(map);
+        if (flatMap.size() > MAX_SHARED_SIZE || flatMap == EMPTY)
+            return flatMap;
+
+        FlatMap present = sharedMaps.putIfAbsent(Arrays.asList(flatMap.entries), flatMap);
+        return present != null ? present : flatMap;
+    }
+
+    private static String sharedKey(String key) {
+        String present = sharedKeys.get(key);
+        if (present != null)
+            return present;
+
+        present = sharedKeys.putIfAbsent(key, key);
+        return present != null ? present : key;
+    }
+
+    @Override
+    public int size() {
+        return entries.length / 2;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index != -1 ? entries[index + 1] : null;
+    }
+
+    /**
+     * @return the value as an integer, or null if it's missing or not an integer
+     */
+    public Integer getInt(Object key) {
+        int index = intIndexOf(key);
+        return index != -1 ? Integer.valueOf(ints[index]) : null;
+    }
+
+    /**
+     * Same as getInt(), without boxing the value.
+     */
+    public int getInt(Object key, int defaultValue) {
+        int index = intIndexOf(key);
+        return index != -1 ? ints[index] : defaultValue;
+    }
+
+    /**
+     * @return the same as Boolean.parseBoolean() for the value, which is false if it's missing
+     */
+    public boolean getBool(Object key) {
+        if (trueBits == null)
+            return false;
+
+        int index = indexOf(key);
+        return index != -1 && isSet(trueBits, index / 2);
+    }
+
+    private int intIndexOf(Object key) {
+        if (ints == null)
+            return -1;
+
+        int index = indexOf(key);
+        return index != -1 && isSet(intBits, index / 2) ? index / 2 : -1;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & 1L << index) != 0;
+    }
+
+    private int indexOf(Object key) {
+        // Keys are shared, so comparing references finds those that come from another map
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i] == key)
+                return i;
+        }
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0 && entries.length != 0) {
+            h = super.hashCode();
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int i;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < entries.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (i >= entries.length)
+                            throw new NoSuchElementException();
+
+                        Map.Entry<String, String> entry = new SimpleImmutableEntry<>(entries[i], entries[i + 1]);
+                        i += 2;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.length / 2;
+            }
+        };
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.collect;
+
+public final class Numbers {
+
+    private Numbers() {
+    }
+
+    /**
+     * Same as Integer.parseInt, except that it returns null instead of throwing,
+     * and doesn't pay for creating an exception when the text obviously isn't a number.
+     */
+    public static Integer parseInt(String text) {
+        if (text == null || text.isEmpty() || text.length() > 11)
+            return null;
+
+        int start = text.charAt(0) == '-' || text.charAt(0) == '+' ? 1 : 0;
+        if (start == text.length())
+            return null;
+
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                return null;
+        }
+
+        try {
+            return Integer.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;    // Out of range
+        }
+    }
+}
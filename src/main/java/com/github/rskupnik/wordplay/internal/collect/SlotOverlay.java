@@ -0,0 +1,171 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.collect;
+
+import java.util.Arrays;
+
+/**
+ * Values set for a few slots on top of arrays shared with other owners, which must not be written to.
+ * Kept in an open-addressing table, so looking a slot up takes constant time however many slots the arrays have.
+ * Every entry holds a value and, optionally, the source it was made from, and remembers whether it was
+ * changed since the last call to markSaved().
+ */
+public final class SlotOverlay {
+
+    private int[] slots;        // Slot + 1, 0 for an empty entry
+    private Object[] values;
+    private Object[] sources;
+    private long[] changed;
+    private int size;
+    private int changedCount;
+
+    public SlotOverlay() {
+        this(8);
+    }
+
+    private SlotOverlay(int capacity) {
+        this.slots = new int[capacity];
+        this.values = new Object[capacity];
+        this.sources = new Object[capacity];
+        this.changed = new long[(capacity + 63) >>> 6];
+    }
+
+    public SlotOverlay copy() {
+        SlotOverlay copy = new SlotOverlay(0);
+        copy.slots = slots.clone();
+        copy.values = values.clone();
+        copy.sources = sources.clone();
+        copy.changed = changed.clone();
+        copy.size = size;
+        copy.changedCount = changedCount;
+        return copy;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the entry of the slot, or -1 if there's none, which includes a slot of -1
+     */
+    public int find(int slot) {
+        if (slot < 0)
+            return -1;
+
+        int mask = slots.length - 1;
+        for (int i = hash(slot) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (slots[i] == slot + 1)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the value of the slot, marking it as changed.
+     */
+    public void put(int slot, Object value, Object source) {
+        if ((size + 1) * 4 > slots.length * 3)
+            grow();
+
+        int mask = slots.length - 1;
+        int i = hash(slot) & mask;
+        while (slots[i] != 0 && slots[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        if (slots[i] == 0) {
+            slots[i] = slot + 1;
+            size++;
+        }
+        values[i] = value;
+        sources[i] = source;
+        if ((changed[i >>> 6] & 1L << i) == 0) {
+            changed[i >>> 6] |= 1L << i;
+            changedCount++;
+        }
+    }
+
+    /**
+     * @return the number of entries, taken as indices, to go through with slotAt() and the other getters
+     */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return the slot of the entry, or -1 if the index holds none
+     */
+    public int slotAt(int index) {
+        return slots[index] - 1;
+    }
+
+    public Object valueAt(int index) {
+        return values[index];
+    }
+
+    public Object sourceAt(int index) {
+        return sources[index];
+    }
+
+    public boolean isChanged(int index) {
+        return (changed[index >>> 6] & 1L << index) != 0;
+    }
+
+    public boolean hasChanges() {
+        return changedCount != 0;
+    }
+
+    /**
+     * @return the highest slot that has an entry, or -1 if there's none
+     */
+    public int maxSlot() {
+        int max = 0;
+        for (int slot : slots) {
+            max = Math.max(max, slot);
+        }
+        return max - 1;
+    }
+
+    public void markSaved() {
+        Arrays.fill(changed, 0);
+        changedCount = 0;
+    }
+
+    private void grow() {
+        SlotOverlay grown = new SlotOverlay(slots.length * 2);
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != 0) {
+                grown.put(slots[i] - 1, values[i], sources[i]);
+                if (!isChanged(i)) {
+                    int index = grown.find(slots[i] - 1);
+                    grown.changed[index >>> 6] &= ~(1L << index);
+                    grown.changedCount--;
+                }
+            }
+        }
+        slots = grown.slots;
+        values = grown.values;
+        sources = grown.sources;
+        changed = grown.changed;
+        changedCount = grown.changedCount;
+    }
+
+    private static int hash(int slot) {
+        int h = slot * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+}
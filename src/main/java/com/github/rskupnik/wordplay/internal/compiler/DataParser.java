@@ -0,0 +1,277 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.compiler;
+
+import com.github.rskupnik.wordplay.internal.tree.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the data section of a script into a tree of nodes.
+ * Anything that does not form a valid expression is kept as literal text,
+ * just like the text the regular expressions used to skip over, so parsing never fails.
+ * The braces and separators are linked up front by the Lexer, so every character
+ * is looked at a constant number of times and nested expressions are parsed directly,
+ * without re-scanning the text until nothing changes. An expression is checked as a whole
+ * before any of its branches is parsed, so one that turns out not to be valid is never parsed twice.
+ *
+ * Trees are walked recursively, both here and when rendering, so expressions nested deeper
+ * than MAX_DEPTH are kept as literal text instead of being parsed.
+ */
+public final class DataParser {
+
+    public static final int MAX_DEPTH = 512;
+
+    public Node parse(String input) {
+        Lexer lexer = new Lexer(input);
+        return parseSequence(lexer, 0, input.length(), 0);
+    }
+
+    private Node parseSequence(Lexer lexer, int from, int to, int depth) {
+        String input = lexer.getInput();
+        List<Node> nodes = new ArrayList<>();
+        int literalStart = from;
+        int i = from;
+        while (i < to) {
+            if (input.charAt(i) == '{') {
+                int close = lexer.closeOf(i);
+                Node expression = close == -1 || depth >= MAX_DEPTH ? null : parseExpression(lexer, i, close, depth + 1);
+                if (expression != null) {
+                    addLiteral(input, literalStart, i, nodes);
+                    nodes.add(expression);
+                    i = close + 1;
+                    literalStart = i;
+                    continue;
+                }
+            }
+            i++;
+        }
+        addLiteral(input, literalStart, to, nodes);
+
+        if (nodes.size() == 1)
+            return nodes.get(0);
+
+        return new SequenceNode(nodes);
+    }
+
+    /**
+     * A branch of an expression has its leading whitespace and a single trailing space removed,
+     * so that "{ var ? one | two }" produces "one" and "two" rather than " one " and " two ".
+     */
+    private Node parseBranch(Lexer lexer, int from, int to, int depth) {
+        String input = lexer.getInput();
+        from = skipSpaces(input, from, to);
+        if (to > from && input.charAt(to - 1) == ' ')
+            to--;
+
+        return parseSequence(lexer, from, to, depth);
+    }
+
+    private Node parseExpression(Lexer lexer, int open, int close, int depth) {
+        int i = open + 1;
+        if (i == close)
+            return null;
+
+        switch (lexer.getInput().charAt(i)) {
+            case '>':
+                return parseInjection(lexer.getInput(), i + 1, close);
+            case '<':
+                return parseAnchored(lexer, i + 1, close, depth);
+            default:
+                return parseCondition(lexer, i, close, depth);
+        }
+    }
+
+    private InjectionNode parseInjection(String input, int from, int close) {
+        int start = skipSpaces(input, from, close);
+        int end = skipWord(input, start, close);
+        if (end == start || skipSpaces(input, end, close) != close)
+            return null;
+
+        return new InjectionNode(input.substring(start, end));
+    }
+
+    private AnchoredNode parseAnchored(Lexer lexer, int from, int close, int depth) {
+        String input = lexer.getInput();
+        int start = skipSpaces(input, from, close);
+        int end = start;
+        while (end < close && !isSpace(input.charAt(end)) && input.charAt(end) != '{' && input.charAt(end) != '}')
+            end++;
+
+        if (end == start || end == close || !isSpace(input.charAt(end)))
+            return null;
+
+        String params = input.substring(start, end);
+        if (params.indexOf(':') == -1 && params.indexOf('|') == -1)
+            return null;
+
+        int contentStart = end + 1;
+        int contentEnd = close;
+        while (contentEnd > contentStart && isSpace(input.charAt(contentEnd - 1)))
+            contentEnd--;
+
+        if (contentEnd == contentStart)
+            return null;
+
+        return new AnchoredNode(extractParameters(params), parseSequence(lexer, contentStart, contentEnd, depth));
+    }
+
+    private Map<String, String> extractParameters(String params) {
+        Map<String, String> output = new LinkedHashMap<>();
+        int start = 0;
+        while (start <= params.length()) {
+            int end = params.indexOf('|', start);
+            if (end == -1)
+                end = params.length();
+
+            String token = params.substring(start, end);
+            int colon = token.indexOf(':');
+            if (colon > 0 && colon < token.length() - 1 && token.indexOf(':', colon + 1) == -1)
+                output.put(token.substring(0, colon), token.substring(colon + 1));
+
+            start = end + 1;
+        }
+        return output;
+    }
+
+    /**
+     * Parses either a ternary or a matching expression, which both start with a variable name.
+     * The name may contain injection expressions, which are resolved at render time.
+     */
+    private Node parseCondition(Lexer lexer, int from, int close, int depth) {
+        String input = lexer.getInput();
+        int i = skipSpaces(input, from, close);
+        List<Node> nameParts = new ArrayList<>();
+        int literalStart = i;
+        while (i < close) {
+            char c = input.charAt(i);
+            if (isWordChar(c)) {
+                i++;
+            } else if (c == '{' && i + 1 < close && input.charAt(i + 1) == '>') {
+                int nestedClose = lexer.closeOf(i);
+                InjectionNode injection = nestedClose == -1 ? null : parseInjection(input, i + 2, nestedClose);
+                if (injection == null)
+                    return null;
+                addLiteral(input, literalStart, i, nameParts);
+                nameParts.add(injection);
+                i = nestedClose + 1;
+                literalStart = i;
+            } else {
+                break;
+            }
+        }
+        addLiteral(input, literalStart, i, nameParts);
+
+        if (nameParts.isEmpty() || i == close)
+            return null;
+
+        Node variable = nameParts.size() == 1 ? nameParts.get(0) : new SequenceNode(nameParts);
+        if (input.charAt(i) == ':')
+            return parseMatching(lexer, variable, i + 1, close, depth);
+
+        i = skipSpaces(input, i, close);
+        if (i < close && input.charAt(i) == '?')
+            return parseTernary(lexer, variable, i + 1, close, depth);
+
+        return null;
+    }
+
+    private TernaryNode parseTernary(Lexer lexer, Node variable, int from, int close, int depth) {
+        int pipe = lexer.firstPipe(close);
+        if (pipe == -1)
+            return null;
+
+        // The last pipe separates the branches, like the greedy regular expression used to do
+        while (lexer.nextPipe(pipe) != -1)
+            pipe = lexer.nextPipe(pipe);
+
+        return new TernaryNode(variable, parseBranch(lexer, from, pipe, depth), parseBranch(lexer, pipe + 1, close, depth));
+    }
+
+    private MatchingNode parseMatching(Lexer lexer, Node variable, int from, int close, int depth) {
+        String input = lexer.getInput();
+        int valueEnd = skipWord(input, from, close);
+        if (valueEnd == from || valueEnd == close || !isSpace(input.charAt(valueEnd)))
+            return null;
+
+        int pipe = lexer.firstPipe(close);
+        if (pipe == -1)
+            return null;
+
+        // Check the layout of all the options first, so that no branch is parsed for an expression that isn't one
+        List<String> values = new ArrayList<>();
+        List<Integer> bounds = new ArrayList<>();   // Start and end of every payload
+        values.add(input.substring(from, valueEnd));
+        bounds.add(valueEnd);
+        bounds.add(pipe);
+
+        int fallbackStart = -1;
+        for (int current = pipe; current != -1; current = lexer.nextPipe(current)) {
+            int start = current + 1;
+            int next = lexer.nextPipe(current);
+            int end = next != -1 ? next : close;
+            if (start < end && input.charAt(start) == ':') {
+                int caseEnd = skipWord(input, start + 1, end);
+                if (caseEnd == start + 1)
+                    return null;
+                values.add(input.substring(start + 1, caseEnd));
+                bounds.add(caseEnd);
+                bounds.add(end);
+            } else if (next == -1) {
+                fallbackStart = start;
+            } else {
+                return null;   // The fallback has to be the last option
+            }
+        }
+
+        List<Node> payloads = new ArrayList<>(values.size());
+        for (int i = 0; i < bounds.size(); i += 2) {
+            payloads.add(parseBranch(lexer, bounds.get(i), bounds.get(i + 1), depth));
+        }
+        Node fallback = fallbackStart != -1 ? parseBranch(lexer, fallbackStart, close, depth) : null;
+        return new MatchingNode(variable, values, payloads, fallback);
+    }
+
+    private void addLiteral(String input, int from, int to, List<Node> nodes) {
+        if (to > from)
+            nodes.add(new LiteralNode(input.substring(from, to)));
+    }
+
+    private int skipSpaces(String input, int from, int to) {
+        while (from < to && isSpace(input.charAt(from)))
+            from++;
+        return from;
+    }
+
+    private int skipWord(String input, int from, int to) {
+        while (from < to && isWordChar(input.charAt(from)))
+            from++;
+        return from;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
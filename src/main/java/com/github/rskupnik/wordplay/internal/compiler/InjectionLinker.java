@@ -0,0 +1,175 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.compiler;
+
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException;
+import com.github.rskupnik.wordplay.internal.tree.*;
+
+import java.util.*;
+
+/**
+ * Resolves the internal injections of a script as a dependency graph.
+ * Since internal injections always take precedence over external ones,
+ * every reference to one of them can be linked when the script is compiled,
+ * so that rendering doesn't look it up, and an injection that ends up not depending
+ * on anything from the outside is expanded once and for all into plain text.
+ * A cycle between internal injections would never finish expanding, so it's rejected here.
+ */
+public final class InjectionLinker implements NodeVisitor<Node> {
+
+    private final Map<String, Node> linked = new HashMap<>();
+
+    /**
+     * @return the internal injections with all references between them linked, by name
+     * @throws WordplayInjectionException if the injections refer to each other in a cycle
+     */
+    public static InjectionLinker resolve(Map<String, Node> injections) throws WordplayInjectionException {
+        InjectionLinker linker = new InjectionLinker();
+        Set<String> visiting = new LinkedHashSet<>();
+        for (String id : injections.keySet()) {
+            linker.resolveInjection(id, injections, visiting);
+        }
+        return linker;
+    }
+
+    public Map<String, Node> getInjections() {
+        return Collections.unmodifiableMap(linked);
+    }
+
+    /**
+     * Links the given tree against the already resolved internal injections.
+     */
+    public Node link(Node node) {
+        try {
+            return fold(node.accept(this));
+        } catch (WordplayException e) {
+            throw new IllegalStateException(e);    // Never thrown, linking doesn't evaluate anything
+        }
+    }
+
+    // A depth-first walk in which every injection is linked only after everything it depends on
+    private void resolveInjection(String id, Map<String, Node> injections, Set<String> visiting) throws WordplayInjectionException {
+        if (linked.containsKey(id))
+            return;
+
+        if (!visiting.add(id))
+            throw new WordplayInjectionException("Cyclic injection: " + cycle(visiting, id));
+
+        for (String dependency : ReferenceCollector.collect(injections.get(id)).getInjections()) {
+            if (injections.containsKey(dependency))
+                resolveInjection(dependency, injections, visiting);
+        }
+
+        visiting.remove(id);
+        linked.put(id, link(injections.get(id)));
+    }
+
+    private String cycle(Set<String> visiting, String id) {
+        StringBuilder sb = new StringBuilder();
+        boolean inCycle = false;
+        for (String element : visiting) {
+            inCycle |= element.equals(id);
+            if (inCycle)
+                sb.append(element).append(" -> ");
+        }
+        return sb.append(id).toString();
+    }
+
+    /**
+     * @return a literal with the expanded text if the node is the same for every render, the node otherwise
+     */
+    private Node fold(Node node) {
+        if (node instanceof LiteralNode || !ReferenceCollector.collect(node).isConstant())
+            return node;
+
+        StringBuilder sb = new StringBuilder();
+        appendConstant(node, sb);
+        return new LiteralNode(sb.toString());
+    }
+
+    private void appendConstant(Node node, StringBuilder sb) {
+        if (node instanceof LiteralNode) {
+            sb.append(((LiteralNode) node).getText());
+        } else if (node instanceof SequenceNode) {
+            for (Node child : ((SequenceNode) node).getChildren()) {
+                appendConstant(child, sb);
+            }
+        } else if (node instanceof InjectionNode) {
+            appendConstant(((InjectionNode) node).getTarget(), sb);
+        }
+    }
+
+    @Override
+    public Node visitLiteral(LiteralNode node) {
+        return node;
+    }
+
+    @Override
+    public Node visitSequence(SequenceNode node) throws WordplayException {
+        List<Node> children = new ArrayList<>(node.getChildren().size());
+        boolean changed = false;
+        for (Node child : node.getChildren()) {
+            Node linkedChild = child.accept(this);
+            changed |= linkedChild != child;
+            children.add(linkedChild);
+        }
+        return changed ? new SequenceNode(children) : node;
+    }
+
+    @Override
+    public Node visitInjection(InjectionNode node) {
+        Node target = linked.get(node.getId());
+        return target != null ? new InjectionNode(node.getId(), target) : node;
+    }
+
+    @Override
+    public Node visitTernary(TernaryNode node) throws WordplayException {
+        Node variable = node.getVariable().accept(this);
+        Node whenTrue = node.getWhenTrue().accept(this);
+        Node whenFalse = node.getWhenFalse().accept(this);
+        if (variable == node.getVariable() && whenTrue == node.getWhenTrue() && whenFalse == node.getWhenFalse())
+            return node;
+
+        return new TernaryNode(fold(variable), whenTrue, whenFalse);
+    }
+
+    @Override
+    public Node visitMatching(MatchingNode node) throws WordplayException {
+        Node variable = node.getVariable().accept(this);
+        boolean changed = variable != node.getVariable();
+        List<Node> payloads = new ArrayList<>(node.getPayloads().size());
+        for (Node payload : node.getPayloads()) {
+            Node linkedPayload = payload.accept(this);
+            changed |= linkedPayload != payload;
+            payloads.add(linkedPayload);
+        }
+        Node fallback = node.getFallback() != null ? node.getFallback().accept(this) : null;
+        changed |= fallback != node.getFallback();
+        if (!changed)
+            return node;
+
+        return new MatchingNode(fold(variable), node.getValues(), payloads, fallback);
+    }
+
+    @Override
+    public Node visitAnchored(AnchoredNode node) throws WordplayException {
+        Node content = node.getContent().accept(this);
+        return content != node.getContent() ? new AnchoredNode(node.getParameters(), content) : node;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.compiler;
+
+/**
+ * Scans the data section once, left to right, and links the structural characters together:
+ * every { is linked to its matching }, every } to the first | directly inside the pair
+ * and every such | to the next one on the same level.
+ * The parser then never has to look for a closing brace or a separator on its own and,
+ * since it checks an expression before parsing any of its branches, the whole parse stays
+ * linear in the length of the input no matter how it's nested.
+ */
+public final class Lexer {
+
+    private static final int NONE = -1;
+
+    private final String input;
+    private final int[] links;
+
+    public Lexer(String input) {
+        this.input = input;
+        this.links = new int[input.length()];
+        scan();
+    }
+
+    private void scan() {
+        int[] openStack = new int[16];
+        int[] firstPipeStack = new int[16];
+        int[] lastPipeStack = new int[16];
+        int depth = 0;
+
+        for (int i = 0; i < links.length; i++) {
+            links[i] = NONE;
+            switch (input.charAt(i)) {
+                case '{':
+                    if (depth == openStack.length) {
+                        openStack = grow(openStack);
+                        firstPipeStack = grow(firstPipeStack);
+                        lastPipeStack = grow(lastPipeStack);
+                    }
+                    openStack[depth] = i;
+                    firstPipeStack[depth] = NONE;
+                    lastPipeStack[depth] = NONE;
+                    depth++;
+                    break;
+                case '}':
+                    if (depth == 0)
+                        break;  // Unmatched, just text
+                    depth--;
+                    links[openStack[depth]] = i;
+                    links[i] = firstPipeStack[depth];
+                    break;
+                case '|':
+                    if (depth == 0)
+                        break;
+                    if (lastPipeStack[depth - 1] == NONE) {
+                        firstPipeStack[depth - 1] = i;
+                    } else {
+                        links[lastPipeStack[depth - 1]] = i;
+                    }
+                    lastPipeStack[depth - 1] = i;
+                    break;
+            }
+        }
+        // Whatever is left on the stack was never closed, so its links stay at NONE
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    /**
+     * @return position of the } matching the { at the given position, or -1 if it's never closed
+     */
+    public int closeOf(int open) {
+        return links[open];
+    }
+
+    /**
+     * @return position of the first | directly inside the braces closed at the given position, or -1
+     */
+    public int firstPipe(int close) {
+        return links[close];
+    }
+
+    /**
+     * @return position of the next | on the same level as the given one, or -1
+     */
+    public int nextPipe(int pipe) {
+        return links[pipe];
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.compiler;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException;
+import com.github.rskupnik.wordplay.internal.tree.*;
+
+import java.util.*;
+
+/**
+ * Folds the values that never change - static variables and injections - into a script, leaving a residual script
+ * with only the expressions that depend on something else. Expressions are decided the same way they would be
+ * when rendering: a static ternary picks its branch, a static matching its payload, a static injection is replaced
+ * with its value, which is then evaluated in turn. Whatever is not in the static context is left for rendering,
+ * and so are anchored objects, though their content is evaluated. Text that ends up next to each other is merged.
+ */
+public final class PartialEvaluator implements NodeVisitor<Node> {
+
+    private final WordplayContext staticValues;
+    private final Map<String, Node> internalInjections;
+    private final List<String> expanding = new ArrayList<>();
+
+    private PartialEvaluator(WordplayContext staticValues, Map<String, Node> internalInjections) {
+        this.staticValues = staticValues;
+        this.internalInjections = internalInjections;
+    }
+
+    /**
+     * @throws WordplayInjectionException if static injections refer to each other in a cycle
+     */
+    public static CompiledScript evaluate(CompiledScript script, WordplayContext staticValues) throws WordplayException {
+        PartialEvaluator evaluator = new PartialEvaluator(staticValues, script.getInjections());
+        Map<String, Node> injections = new HashMap<>();
+        for (Map.Entry<String, Node> injection : script.getInjections().entrySet()) {
+            injections.put(injection.getKey(), injection.getValue().accept(evaluator));
+        }
+        return new CompiledScript(script.getRoot().accept(evaluator), injections, script.getMetaObjects());
+    }
+
+    @Override
+    public Node visitLiteral(LiteralNode node) {
+        return node;
+    }
+
+    @Override
+    public Node visitSequence(SequenceNode node) throws WordplayException {
+        List<Node> evaluated = new ArrayList<>(node.getChildren().size());
+        boolean changed = false;
+        for (Node child : node.getChildren()) {
+            Node evaluatedChild = child.accept(this);
+            changed |= evaluatedChild != child;
+            evaluated.add(evaluatedChild);
+        }
+        if (!changed)
+            return node;
+
+        List<Node> children = new ArrayList<>(evaluated.size());
+        StringBuilder text = new StringBuilder();
+        merge(evaluated, children, text);
+        if (text.length() > 0)
+            children.add(new LiteralNode(text.toString()));
+
+        if (children.isEmpty())
+            return new LiteralNode("");
+
+        return children.size() == 1 ? children.get(0) : new SequenceNode(children);
+    }
+
+    @Override
+    public Node visitInjection(InjectionNode node) throws WordplayException {
+        if (node.getTarget() != null) {
+            Node target = node.getTarget().accept(this);
+            if (target instanceof LiteralNode)
+                return target;
+
+            return target != node.getTarget() ? new InjectionNode(node.getId(), target) : node;
+        }
+
+        // Same precedence as when rendering - internal injections first
+        Node injected = internalInjections.get(node.getId());
+        if (injected == null)
+            injected = staticValues.getInjection(node.getId());
+        if (injected == null)
+            return node;
+
+        if (expanding.contains(node.getId()))
+            throw new WordplayInjectionException("Cyclic injection: " + node.getId());
+
+        expanding.add(node.getId());
+        Node evaluated = injected.accept(this);
+        expanding.remove(expanding.size() - 1);
+        return evaluated;
+    }
+
+    @Override
+    public Node visitTernary(TernaryNode node) throws WordplayException {
+        Node variable = node.getVariable().accept(this);
+        Boolean value = variable instanceof LiteralNode
+                ? staticValues.getBooleanVariable(((LiteralNode) variable).getText())
+                : null;
+        if (value != null)
+            return (value ? node.getWhenTrue() : node.getWhenFalse()).accept(this);
+
+        Node whenTrue = node.getWhenTrue().accept(this);
+        Node whenFalse = node.getWhenFalse().accept(this);
+        if (variable == node.getVariable() && whenTrue == node.getWhenTrue() && whenFalse == node.getWhenFalse())
+            return node;
+
+        return new TernaryNode(variable, whenTrue, whenFalse);
+    }
+
+    @Override
+    public Node visitMatching(MatchingNode node) throws WordplayException {
+        Node variable = node.getVariable().accept(this);
+        String value = variable instanceof LiteralNode
+                ? staticValues.getVariable(((LiteralNode) variable).getText())
+                : null;
+        if (value != null) {
+            int index = value.length() != 0 ? node.getValues().indexOf(value) : -1;
+            if (index >= 0)
+                return node.getPayloads().get(index).accept(this);
+
+            return node.getFallback() != null ? node.getFallback().accept(this) : new LiteralNode("");
+        }
+
+        boolean changed = variable != node.getVariable();
+        List<Node> payloads = new ArrayList<>(node.getPayloads().size());
+        for (Node payload : node.getPayloads()) {
+            Node evaluated = payload.accept(this);
+            changed |= evaluated != payload;
+            payloads.add(evaluated);
+        }
+        Node fallback = node.getFallback() != null ? node.getFallback().accept(this) : null;
+        changed |= fallback != node.getFallback();
+        if (!changed)
+            return node;
+
+        return new MatchingNode(variable, node.getValues(), payloads, fallback);
+    }
+
+    @Override
+    public Node visitAnchored(AnchoredNode node) throws WordplayException {
+        Node content = node.getContent().accept(this);
+        return content != node.getContent() ? new AnchoredNode(node.getParameters(), content) : node;
+    }
+
+    /**
+     * Adds the nodes to the children of a sequence, flattening nested sequences
+     * and collecting adjacent text in the builder until something else comes.
+     */
+    private static void merge(List<Node> nodes, List<Node> children, StringBuilder text) {
+        for (Node node : nodes) {
+            if (node instanceof SequenceNode) {
+                merge(((SequenceNode) node).getChildren(), children, text);
+            } else if (node instanceof LiteralNode) {
+                text.append(((LiteralNode) node).getText());
+            } else {
+                if (text.length() > 0) {
+                    children.add(new LiteralNode(text.toString()));
+                    text.setLength(0);
+                }
+                children.add(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.compiler;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException;
+import com.github.rskupnik.wordplay.exceptions.WordplaySyntaxException;
+import com.github.rskupnik.wordplay.internal.processors.CodeProcessor;
+import com.github.rskupnik.wordplay.internal.tree.Node;
+import com.github.rskupnik.wordplay.metrics.CompileMetrics;
+import com.github.rskupnik.wordplay.metrics.WordplayListener;
+import com.github.rskupnik.wordplay.output.MetaObject;
+import org.javatuples.Pair;
+import org.javatuples.Triplet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class ScriptCompiler {
+
+    private final CodeProcessor codeProcessor = new CodeProcessor();
+    private final DataParser dataParser = new DataParser();
+
+    /**
+     * Does all the parsing work up front - the code section is parsed the same way
+     * as in process() and the data section, as well as every internal injection,
+     * is turned into a tree of nodes that can be rendered any number of times.
+     * References to internal injections are linked directly, see InjectionLinker.
+     * @throws WordplaySyntaxException if the code section is malformed
+     * @throws WordplayInjectionException if internal injections refer to each other in a cycle
+     * @return a CompiledScript ready to be rendered
+     */
+    public CompiledScript compile(String input) throws WordplayException {
+        return compile(input, null);
+    }
+
+    /**
+     * Compiles the script, reporting the time every stage took to the listener, if there is one.
+     */
+    public CompiledScript compile(String input, WordplayListener listener) throws WordplayException {
+        long start = listener != null ? System.nanoTime() : 0;
+        Triplet<String, ArrayList<Pair<String, String>>, ArrayList<MetaObject>> codeProcessingOutput =
+                codeProcessor.parse(input);
+        long parseStart = listener != null ? System.nanoTime() : 0;
+
+        Map<String, Node> injections = new HashMap<>();
+        if (codeProcessingOutput.getValue1() != null) {
+            for (Pair<String, String> injectionPair : codeProcessingOutput.getValue1()) {
+                injections.put(injectionPair.getValue0(), dataParser.parse(injectionPair.getValue1()));
+            }
+        }
+        Node data = dataParser.parse(codeProcessingOutput.getValue0());
+        long linkStart = listener != null ? System.nanoTime() : 0;
+
+        InjectionLinker linker = InjectionLinker.resolve(injections);
+        Node root = linker.link(data);
+        CompiledScript script = new CompiledScript(root, linker.getInjections(), codeProcessingOutput.getValue2());
+
+        if (listener != null)
+            listener.compiled(new CompileMetrics(false, input.length(),
+                    parseStart - start, linkStart - parseStart, System.nanoTime() - linkStart));
+        return script;
+    }
+}
@@ -28,7 +28,7 @@ import java.util.ArrayList;
 
 public final class CodeProcessor {
 
-    private EmissionProcessor emissionProcessor = new EmissionProcessor();
+    private final EmissionProcessor emissionProcessor = new EmissionProcessor();
 
     /**
      * Parses the code section of the script if it exists.
@@ -56,7 +56,9 @@ public final class CodeProcessor {
         String code = "";
         if (input.contains(HeaderPreprocessor.DELIMINATOR)) {
             int endingDelimIndex = input.indexOf(lineEnding + HeaderPreprocessor.DELIMINATOR + lineEnding);
-            code = input.substring(delimIndex + 3, endingDelimIndex);
+            code = endingDelimIndex > delimIndex
+                    ? input.substring(delimIndex + 3, endingDelimIndex)
+                    : input.substring(delimIndex + 3);
         } else {
             code = input.substring(delimIndex+3);
         }
@@ -80,6 +82,8 @@ public final class CodeProcessor {
         String rest = input.substring(1).trim();
         switch (token) {
             case ">":   // Injection
+                if (rest.indexOf(" ") <= 0)
+                    throw new WordplaySyntaxException("Injection without a name and a body: " + input);
                 String name = rest.substring(0, rest.indexOf(" "));
                 String body = rest.substring(rest.indexOf(" ")+1);
                 output.getValue1().add(Pair.with(name, body));
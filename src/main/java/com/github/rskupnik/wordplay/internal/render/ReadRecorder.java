@@ -0,0 +1,115 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.render;
+
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.internal.tree.Node;
+
+import java.util.Arrays;
+
+/**
+ * Records every lookup a render makes in the context, together with the value it got.
+ * Rendering is deterministic, so if all of those lookups would still give the same values,
+ * rendering again would produce exactly the same output.
+ * Only the branches that were actually taken are recorded, which is what makes it precise -
+ * a variable used only in a branch that wasn't chosen can change without consequences.
+ * Lookups are recorded by slot, so checking them again only reads the context's arrays.
+ * Names that had no slot in the layout at all are recorded by name and looked up again instead.
+ */
+public final class ReadRecorder {
+
+    private static final byte BOOLEAN_VARIABLE = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte INJECTION = 2;
+    private static final byte MISSING_BOOLEAN_VARIABLE = 3;
+    private static final byte MISSING_VARIABLE = 4;
+
+    private byte[] kinds = new byte[4];
+    private int[] slots = new int[4];
+    private Object[] values = new Object[4];
+    private int size;
+
+    void booleanVariable(int slot, Boolean value) {
+        record(BOOLEAN_VARIABLE, slot, value);
+    }
+
+    void variable(int slot, String value) {
+        record(VARIABLE, slot, value);
+    }
+
+    void injection(int slot, Node value) {
+        record(INJECTION, slot, value);
+    }
+
+    void missingBooleanVariable(String name) {
+        record(MISSING_BOOLEAN_VARIABLE, -1, name);
+    }
+
+    void missingVariable(String name) {
+        record(MISSING_VARIABLE, -1, name);
+    }
+
+    private void record(byte kind, int slot, Object value) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        kinds[size] = kind;
+        slots[size] = slot;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * @return true if any of the recorded lookups would give a different value in the given context
+     */
+    public boolean isStale(WordplayContext context) {
+        for (int i = 0; i < size; i++) {
+            Object value = values[i];
+            switch (kinds[i]) {
+                case BOOLEAN_VARIABLE:
+                    if (!equal(value, context.getBooleanVariable(slots[i])))
+                        return true;
+                    break;
+                case VARIABLE:
+                    if (!equal(value, context.getVariable(slots[i])))
+                        return true;
+                    break;
+                case INJECTION:
+                    // Injected values are compiled on every inject(), so the same instance means no change
+                    if (value != context.getInjection(slots[i]))
+                        return true;
+                    break;
+                case MISSING_BOOLEAN_VARIABLE:
+                    if (context.getBooleanVariable(context.getLayout().findBooleanVariableSlot((String) value)) != null)
+                        return true;
+                    break;
+                case MISSING_VARIABLE:
+                    if (context.getVariable(context.getLayout().findVariableSlot((String) value)) != null)
+                        return true;
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
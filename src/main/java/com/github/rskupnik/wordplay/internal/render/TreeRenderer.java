@@ -0,0 +1,387 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.render;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException;
+import com.github.rskupnik.wordplay.internal.tree.*;
+import com.github.rskupnik.wordplay.metrics.RenderMetrics;
+import com.github.rskupnik.wordplay.output.AnchoredObject;
+import com.github.rskupnik.wordplay.output.TextRope;
+import com.github.rskupnik.wordplay.output.WordplayOutput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Walks a compiled tree once and writes the final text straight into an Appendable.
+ * Only the branches that are actually chosen get visited.
+ * The position of every character written is counted on the way, which is all
+ * that's needed to anchor objects, so the output never has to be read back.
+ * A renderer holds the state of a single render and is not meant to be reused.
+ *
+ * Nothing in the context can change during a render, so an injection expands to the same text every time
+ * it's referenced. One that isn't plain text and is referenced more than once is expanded the second time
+ * on the side, and from then on its text and anchored objects are written as they are.
+ */
+public final class TreeRenderer implements NodeVisitor<Void> {
+
+    private final WordplayContext context;
+    private final Map<String, Node> internalInjections;
+
+    private Appendable out;
+    private int position;
+    private List<AnchoredObject> anchoredObjects = new ArrayList<>();
+
+    // Ids of the external injections being expanded at the moment
+    private final Set<String> expanding = new HashSet<>();
+
+    // Expansions of the injections referenced more than once so far, by the injected node,
+    // null for the ones referenced once
+    private final Map<Node, Expansion> expansions = new IdentityHashMap<>();
+
+    // The output itself if it's a StringBuilder, the text of anchored objects is then sliced from it
+    private StringBuilder written;
+    private int writtenStart;
+
+    // Or the output itself if it's a TextRope.Builder, which the text is read back from the same way
+    private TextRope.Builder rope;
+    private int ropeStart;
+
+    // Otherwise the text of anchored objects is collected on the side, only while inside the outermost one
+    private StringBuilder capture;
+    private int captureStart;
+
+    // Optional, used to find out what the output depends on
+    private ReadRecorder recorder;
+
+    // Expressions evaluated so far, counting is cheaper than checking whether anyone is interested
+    private int ternaryCount;
+    private int matchingCount;
+    private int injectionCount;
+
+    public TreeRenderer(WordplayContext context, Map<String, Node> internalInjections) {
+        this.context = context;
+        this.internalInjections = internalInjections;
+    }
+
+    /**
+     * Makes the renderer record every lookup it makes in the context from now on.
+     */
+    public TreeRenderer recordReads(ReadRecorder recorder) {
+        this.recorder = recorder;
+        return this;
+    }
+
+    /**
+     * Renders the script into a TextRope, which shares the pieces of the script and injected values
+     * instead of copying them.
+     */
+    public WordplayOutput render(CompiledScript script) throws WordplayException {
+        TextRope.Builder text = new TextRope.Builder();
+        try {
+            render(script, text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);    // The builder never throws it
+        }
+        return new WordplayOutput(text.build(), anchoredObjects, script.getMetaObjects());
+    }
+
+    /**
+     * Renders the script into the given Appendable.
+     * @return anchored objects with positions relative to the first character written
+     */
+    public List<AnchoredObject> render(CompiledScript script, Appendable out) throws WordplayException, IOException {
+        return render(script.getRoot(), out);
+    }
+
+    /**
+     * Renders a part of a script into the given Appendable.
+     * @return anchored objects with positions relative to the first character written
+     */
+    public List<AnchoredObject> render(Node node, Appendable out) throws WordplayException, IOException {
+        this.out = out;
+        if (out instanceof StringBuilder) {
+            written = (StringBuilder) out;
+            writtenStart = written.length();
+        } else if (out instanceof TextRope.Builder) {
+            rope = (TextRope.Builder) out;
+            ropeStart = rope.length();
+        }
+        try {
+            node.accept(this);
+        } catch (AppendFailedException e) {
+            throw e.getCause();
+        }
+        return anchoredObjects;
+    }
+
+    @Override
+    public Void visitLiteral(LiteralNode node) {
+        write(node.getText());
+        return null;
+    }
+
+    @Override
+    public Void visitSequence(SequenceNode node) throws WordplayException {
+        for (Node child : node.getChildren()) {
+            child.accept(this);
+        }
+        return null;
+    }
+
+    /**
+     * @return what the last render went through, given the time it took
+     */
+    public RenderMetrics getMetrics(RenderMetrics.CacheResult cacheResult, long renderTime) {
+        return new RenderMetrics(cacheResult, renderTime, position, anchoredObjects.size(), ternaryCount, matchingCount, injectionCount);
+    }
+
+    @Override
+    public Void visitInjection(InjectionNode node) throws WordplayException {
+        injectionCount++;
+        // Linked when compiled, no need to look it up
+        if (node.getTarget() != null) {
+            expand(node.getTarget());
+            return null;
+        }
+
+        // Internal injections take precedence over the external ones, those not linked come from injected values
+        Node injected = internalInjections.isEmpty() ? null : internalInjections.get(node.getId());
+        if (injected != null) {
+            expand(injected);
+            return null;
+        }
+
+        int slot = node.slotIn(context.getLayout());
+        injected = context.getInjection(slot);
+        if (recorder != null)
+            recorder.injection(slot, injected);
+        if (injected == null)
+            throw new WordplayInjectionException("Missing injection: " + node.getId());
+
+        // Internal injections can't form a cycle on their own, so any cycle has to go through here.
+        // The script's internal injections take precedence, so the context alone can't tell it before rendering
+        if (!expanding.add(node.getId()))
+            throw new WordplayInjectionException("Cyclic injection: " + node.getId());
+
+        expand(injected);
+        expanding.remove(node.getId());
+        return null;
+    }
+
+    private void expand(Node injected) throws WordplayException {
+        if (injected instanceof LiteralNode) {
+            injected.accept(this);
+            return;
+        }
+
+        Expansion expansion = expansions.get(injected);
+        if (expansion == null) {
+            // The first time it's rendered in place, nothing is kept for an injection referenced once
+            if (!expansions.containsKey(injected)) {
+                expansions.put(injected, null);
+                injected.accept(this);
+                return;
+            }
+
+            expansion = renderAside(injected);
+            expansions.put(injected, expansion);
+        }
+
+        int start = position;
+        write(expansion.text);
+        for (AnchoredObject anchoredObject : expansion.anchoredObjects) {
+            anchoredObjects.add(new AnchoredObject(anchoredObject.getText(), start + anchoredObject.getPosition(),
+                    anchoredObject.getParameters()));
+        }
+    }
+
+    @Override
+    public Void visitTernary(TernaryNode node) throws WordplayException {
+        ternaryCount++;
+        int slot;
+        if (node.getVariable() instanceof LiteralNode) {
+            slot = node.slotIn(context.getLayout());
+        } else {
+            // A name made up at render time is only looked up, one no context has a slot for is simply not set
+            String name = evaluate(node.getVariable());
+            slot = context.getLayout().findBooleanVariableSlot(name);
+            if (slot == -1 && recorder != null)
+                recorder.missingBooleanVariable(name);
+        }
+        Boolean chosenBool = context.getBooleanVariable(slot);
+        if (recorder != null && slot != -1)
+            recorder.booleanVariable(slot, chosenBool);
+
+        // Assume false as default value of this variable if it's missing
+        chosenBool = chosenBool != null ? chosenBool : false;
+
+        (chosenBool ? node.getWhenTrue() : node.getWhenFalse()).accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitMatching(MatchingNode node) throws WordplayException {
+        matchingCount++;
+        int slot;
+        if (node.getVariable() instanceof LiteralNode) {
+            slot = node.slotIn(context.getLayout());
+        } else {
+            String name = evaluate(node.getVariable());
+            slot = context.getLayout().findVariableSlot(name);
+            if (slot == -1 && recorder != null)
+                recorder.missingVariable(name);
+        }
+        String expectedValue = context.getVariable(slot);
+        if (recorder != null && slot != -1)
+            recorder.variable(slot, expectedValue);
+        if (expectedValue != null && expectedValue.length() != 0) {
+            List<String> values = node.getValues();
+            for (int i = 0; i < values.size(); i++) {
+                if (expectedValue.equals(values.get(i))) {
+                    node.getPayloads().get(i).accept(this);
+                    return null;
+                }
+            }
+        }
+
+        if (node.getFallback() != null)
+            node.getFallback().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitAnchored(AnchoredNode node) throws WordplayException {
+        int start = position;
+        boolean outermost = written == null && rope == null && capture == null;
+        if (outermost) {
+            capture = new StringBuilder();
+            captureStart = start;
+        }
+
+        // Reserve a slot so that an outer object precedes the ones nested inside it
+        int slot = anchoredObjects.size();
+        anchoredObjects.add(null);
+
+        node.getContent().accept(this);
+
+        String text;
+        if (written != null)
+            text = written.substring(writtenStart + start, writtenStart + position);
+        else if (rope != null)
+            text = rope.substring(ropeStart + start, ropeStart + position);
+        else
+            text = capture.substring(start - captureStart);
+        if (outermost)
+            capture = null;
+
+        anchoredObjects.set(slot, new AnchoredObject(text, start, node.getParameters()));
+        return null;
+    }
+
+    private void write(String text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            throw new AppendFailedException(e);
+        }
+        position += text.length();
+        if (capture != null)
+            capture.append(text);
+    }
+
+    /**
+     * Renders a node on the side and returns it as a String, used for variable names.
+     */
+    private String evaluate(Node node) throws WordplayException {
+        if (node instanceof LiteralNode)
+            return ((LiteralNode) node).getText();
+
+        return renderAside(node).text;
+    }
+
+    /**
+     * Renders a node on the side, with the positions of its anchored objects relative to its start.
+     */
+    private Expansion renderAside(Node node) throws WordplayException {
+        Appendable previousOut = out;
+        int previousPosition = position;
+        List<AnchoredObject> previousAnchoredObjects = anchoredObjects;
+        StringBuilder previousWritten = written;
+        int previousWrittenStart = writtenStart;
+        TextRope.Builder previousRope = rope;
+        int previousRopeStart = ropeStart;
+        StringBuilder previousCapture = capture;
+        int previousCaptureStart = captureStart;
+        StringBuilder sb = new StringBuilder();
+        out = sb;
+        position = 0;
+        anchoredObjects = new ArrayList<>();
+        written = sb;
+        writtenStart = 0;
+        rope = null;
+        capture = null;
+        try {
+            node.accept(this);
+            return new Expansion(sb.toString(), anchoredObjects);
+        } finally {
+            out = previousOut;
+            position = previousPosition;
+            anchoredObjects = previousAnchoredObjects;
+            written = previousWritten;
+            writtenStart = previousWrittenStart;
+            rope = previousRope;
+            ropeStart = previousRopeStart;
+            capture = previousCapture;
+            captureStart = previousCaptureStart;
+        }
+    }
+
+    private static final class Expansion {
+
+        private final String text;
+        private final List<AnchoredObject> anchoredObjects;
+
+        private Expansion(String text, List<AnchoredObject> anchoredObjects) {
+            this.text = text;
+            this.anchoredObjects = anchoredObjects;
+        }
+    }
+
+    /**
+     * Carries an IOException out of the visitor methods, which can only throw WordplayException.
+     */
+    private static final class AppendFailedException extends RuntimeException {
+        AppendFailedException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.session;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Hands out regions of a few large buffers - slabs - instead of a buffer each, so that many small
+ * pieces of state cost a handful of buffers and, off the heap, a handful of native allocations.
+ * Regions are carved from the current slab one after another; a freed region only counts against
+ * its slab, which is reused once nothing in it is live anymore. Moving live regions out of the slabs
+ * that are mostly free - see isSparse() - is up to the owner of the regions, who knows where they are.
+ * A region larger than a slab gets a buffer of its own.
+ *
+ * All methods are thread-safe, the contents of the regions are guarded by their owners.
+ */
+public final class SlabAllocator {
+
+    // Empty slabs kept for reuse, the others are left to the garbage collector
+    private static final int MAX_SPARE_SLABS = 2;
+
+    private final boolean direct;
+    private final int slabSize;
+
+    private final Deque<Slab> spare = new ArrayDeque<>();
+    private Slab current;
+    private long reservedBytes;
+    private long liveBytes;
+    private long freedBytes;    // Since the owner last moved regions out of sparse slabs
+
+    /**
+     * @param direct whether to allocate the slabs off the heap
+     */
+    public SlabAllocator(boolean direct, int slabSize) {
+        if (slabSize < 64)
+            throw new IllegalArgumentException("slabSize has to be at least 64");
+
+        this.direct = direct;
+        this.slabSize = slabSize;
+    }
+
+    public synchronized Region allocate(int size) {
+        if (size > slabSize) {
+            Slab own = newSlab(size);
+            own.top = size;
+            own.live = size;
+            liveBytes += size;
+            return new Region(own, 0, size);
+        }
+
+        if (current == null || current.capacity() - current.top < size) {
+            if (current != null && current.live == 0)
+                release(current);
+            current = spare.isEmpty() ? newSlab(slabSize) : spare.pop();
+        }
+
+        Region region = new Region(current, current.top, size);
+        current.top += size;
+        current.live += size;
+        liveBytes += size;
+        return region;
+    }
+
+    public synchronized void free(Region region) {
+        Slab slab = region.slab;
+        slab.live -= region.capacity;
+        liveBytes -= region.capacity;
+        freedBytes += region.capacity;
+        if (slab.live == 0 && slab != current)
+            release(slab);
+    }
+
+    /**
+     * @return whether the region is in a slab that is mostly free, so moving it would help free the slab
+     */
+    public synchronized boolean isSparse(Region region) {
+        Slab slab = region.slab;
+        return slab != current && slab.capacity() <= slabSize && slab.live <= slab.capacity() / 2;
+    }
+
+    /**
+     * @return whether at least as much has been freed since compacted() was last called as is live now,
+     * and more than a couple of slabs' worth, so that moving the live regions is paid for by what was freed
+     */
+    public synchronized boolean isFragmented() {
+        return freedBytes >= Math.max(liveBytes, 2L * slabSize);
+    }
+
+    /**
+     * Tells that the regions in sparse slabs were moved, which starts counting the bytes freed anew.
+     */
+    public synchronized void compacted() {
+        freedBytes = 0;
+    }
+
+    /**
+     * @return the number of bytes reserved by the slabs in use, spare ones included
+     */
+    public synchronized long getReservedByteCount() {
+        return reservedBytes;
+    }
+
+    private Slab newSlab(int size) {
+        reservedBytes += size;
+        return new Slab(direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size));
+    }
+
+    private void release(Slab slab) {
+        if (slab.capacity() == slabSize && spare.size() < MAX_SPARE_SLABS) {
+            slab.top = 0;
+            spare.push(slab);
+        } else {
+            reservedBytes -= slab.capacity();
+        }
+    }
+
+    private static final class Slab {
+
+        private final ByteBuffer buffer;
+        private int top;    // Where the next region starts
+        private int live;   // Bytes in regions not freed yet
+
+        private Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int capacity() {
+            return buffer.capacity();
+        }
+    }
+
+    /**
+     * A part of a slab. The buffers it gives are views of just this part, starting at 0.
+     */
+    public static final class Region {
+
+        private final Slab slab;
+        private final int offset;
+        private final int capacity;
+
+        private Region(Slab slab, int offset, int capacity) {
+            this.slab = slab;
+            this.offset = offset;
+            this.capacity = capacity;
+        }
+
+        public int capacity() {
+            return capacity;
+        }
+
+        /**
+         * @return a buffer over the whole region, positioned at its start
+         */
+        public ByteBuffer buffer() {
+            ByteBuffer view = slab.buffer.duplicate();
+            ((Buffer) view).limit(offset + capacity).position(offset);
+            return view.slice();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.session;
+
+/**
+ * Layout of the saved state of a context, all numbers being unsigned varints and all strings
+ * their UTF-8 length followed by the bytes. The state is a sequence of records, each of them:
+ *
+ *   kind (1 byte) - a snapshot, which replaces everything, or a delta, which only updates what it lists
+ *   boolean variable count, then name and value of each (0 - false, 1 - true, 2 - not set)
+ *   string variable count, then name and value of each
+ *   injection count, then id and value of each
+ *
+ * String values are preceded by a byte telling whether they are set at all (1) or not (0).
+ * Names are stored rather than slots, so the state can be restored with any layout.
+ */
+public final class StateFormat {
+
+    public static final byte SNAPSHOT = 1;
+    public static final byte DELTA = 2;
+
+    public static final byte FALSE = 0;
+    public static final byte TRUE = 1;
+    public static final byte UNSET = 2;
+
+    private StateFormat() {
+    }
+}
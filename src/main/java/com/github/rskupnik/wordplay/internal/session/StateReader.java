@@ -0,0 +1,86 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.session;
+
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads records of the StateFormat, turning malformed input into IllegalArgumentExceptions.
+ */
+public final class StateReader {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Reads from the buffer's position to its limit, without modifying it.
+     */
+    public StateReader(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+    }
+
+    public boolean hasMore() {
+        return buffer.hasRemaining();
+    }
+
+    public int readByte() {
+        try {
+            return buffer.get();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed session state: varint too long");
+    }
+
+    public String readString() {
+        int length = readVarint();
+        if (length < 0 || length > buffer.remaining())
+            throw truncated();
+
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] utf8 = new byte[length];
+            buffer.duplicate().get(utf8);
+            value = new String(utf8, StandardCharsets.UTF_8);
+        }
+        ((Buffer) buffer).position(buffer.position() + length);
+        return value;
+    }
+
+    public String readOptionalString() {
+        return readByte() != 0 ? readString() : null;
+    }
+
+    private static IllegalArgumentException truncated() {
+        return new IllegalArgumentException("Malformed session state: unexpected end of data");
+    }
+}
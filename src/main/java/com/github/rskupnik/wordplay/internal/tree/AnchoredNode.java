@@ -0,0 +1,52 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.tree;
+
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.collect.FlatMap;
+
+import java.util.Map;
+
+/**
+ * The {< param:value|param2:value2 text } expression.
+ * Rendering the content produces both the text and an AnchoredObject pointing at it.
+ * The parameters are shared with every AnchoredObject produced, and with other expressions having the same ones.
+ */
+public final class AnchoredNode extends Node {
+
+    private final FlatMap parameters;
+    private final Node content;
+
+    public AnchoredNode(Map<String, String> parameters, Node content) {
+        this.parameters = FlatMap.shared(parameters);
+        this.content = content;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public Node getContent() {
+        return content;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) throws WordplayException {
+        return visitor.visitAnchored(this);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.tree;
+
+import com.github.rskupnik.wordplay.VariableLayout;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+
+/**
+ * The {> id} expression.
+ * A reference to an internal injection is linked to it when the script is compiled,
+ * anything else is looked up by id at render time.
+ */
+public final class InjectionNode extends Node {
+
+    private final String id;
+    private final Node target;
+    private SlotBinding binding;
+
+    public InjectionNode(String id) {
+        this(id, null);
+    }
+
+    public InjectionNode(String id, Node target) {
+        this.id = id;
+        this.target = target;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int slotIn(VariableLayout layout) {
+        SlotBinding binding = this.binding;
+        if (binding == null || binding.layout != layout) {
+            binding = new SlotBinding(layout, layout.injectionSlot(id));
+            this.binding = binding;
+        }
+        return binding.slot;
+    }
+
+    /**
+     * @return the already expanded internal injection or null if it has to be looked up at render time
+     */
+    public Node getTarget() {
+        return target;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) throws WordplayException {
+        return visitor.visitInjection(this);
+    }
+}
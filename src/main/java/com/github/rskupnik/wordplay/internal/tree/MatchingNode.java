@@ -0,0 +1,81 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.tree;
+
+import com.github.rskupnik.wordplay.VariableLayout;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The { variable:value payload |:other_value other payload | fallback } expression.
+ * Cases are kept in the order they appear in the script, the first one that matches wins.
+ */
+public final class MatchingNode extends Node {
+
+    private final Node variable;
+    private final List<String> values;
+    private final List<Node> payloads;
+    private final Node fallback;
+    private SlotBinding binding;
+
+    public MatchingNode(Node variable, List<String> values, List<Node> payloads, Node fallback) {
+        this.variable = variable;
+        this.values = Collections.unmodifiableList(new ArrayList<>(values));
+        this.payloads = Collections.unmodifiableList(new ArrayList<>(payloads));
+        this.fallback = fallback;
+    }
+
+    public Node getVariable() {
+        return variable;
+    }
+
+    /**
+     * @return the slot of the variable in the layout, for a variable with a literal name
+     */
+    public int slotIn(VariableLayout layout) {
+        SlotBinding binding = this.binding;
+        if (binding == null || binding.layout != layout) {
+            binding = new SlotBinding(layout, layout.variableSlot(((LiteralNode) variable).getText()));
+            this.binding = binding;
+        }
+        return binding.slot;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    public List<Node> getPayloads() {
+        return payloads;
+    }
+
+    /**
+     * @return the fallback payload or null if the expression has none
+     */
+    public Node getFallback() {
+        return fallback;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) throws WordplayException {
+        return visitor.visitMatching(this);
+    }
+}
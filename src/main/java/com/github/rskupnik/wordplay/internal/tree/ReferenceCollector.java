@@ -0,0 +1,138 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.tree;
+
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects everything a tree refers to from the outside - injections and variables -
+ * visiting every branch, not only the ones a particular render would choose.
+ * Linked injections are followed, so the result covers them as well.
+ */
+public final class ReferenceCollector implements NodeVisitor<Void> {
+
+    private final Set<String> injections = new LinkedHashSet<>();
+    private final Set<String> booleanVariables = new LinkedHashSet<>();
+    private final Set<String> variables = new LinkedHashSet<>();
+    private boolean anchored;
+    private boolean dynamicNames;
+
+    public static ReferenceCollector collect(Node node) {
+        ReferenceCollector collector = new ReferenceCollector();
+        try {
+            node.accept(collector);
+        } catch (WordplayException e) {
+            throw new IllegalStateException(e);    // Never thrown, collecting doesn't evaluate anything
+        }
+        return collector;
+    }
+
+    /**
+     * @return ids of the injections that are looked up at render time
+     */
+    public Set<String> getInjections() {
+        return injections;
+    }
+
+    public Set<String> getBooleanVariables() {
+        return booleanVariables;
+    }
+
+    public Set<String> getVariables() {
+        return variables;
+    }
+
+    public boolean hasAnchoredObjects() {
+        return anchored;
+    }
+
+    /**
+     * @return true if the name of some variable is only known at render time, because it's injected
+     */
+    public boolean hasDynamicNames() {
+        return dynamicNames;
+    }
+
+    /**
+     * @return true if the tree renders to the same text no matter the context
+     */
+    public boolean isConstant() {
+        return injections.isEmpty() && booleanVariables.isEmpty() && variables.isEmpty() && !anchored && !dynamicNames;
+    }
+
+    @Override
+    public Void visitLiteral(LiteralNode node) {
+        return null;
+    }
+
+    @Override
+    public Void visitSequence(SequenceNode node) throws WordplayException {
+        for (Node child : node.getChildren()) {
+            child.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitInjection(InjectionNode node) throws WordplayException {
+        if (node.getTarget() != null) {
+            node.getTarget().accept(this);
+        } else {
+            injections.add(node.getId());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernary(TernaryNode node) throws WordplayException {
+        name(node.getVariable(), booleanVariables);
+        node.getWhenTrue().accept(this);
+        node.getWhenFalse().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitMatching(MatchingNode node) throws WordplayException {
+        name(node.getVariable(), variables);
+        for (Node payload : node.getPayloads()) {
+            payload.accept(this);
+        }
+        if (node.getFallback() != null)
+            node.getFallback().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitAnchored(AnchoredNode node) throws WordplayException {
+        anchored = true;
+        node.getContent().accept(this);
+        return null;
+    }
+
+    private void name(Node variable, Set<String> names) throws WordplayException {
+        if (variable instanceof LiteralNode) {
+            names.add(((LiteralNode) variable).getText());
+        } else {
+            dynamicNames = true;
+            variable.accept(this);
+        }
+    }
+}
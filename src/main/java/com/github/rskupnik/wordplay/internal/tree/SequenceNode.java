@@ -0,0 +1,42 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.tree;
+
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class SequenceNode extends Node {
+
+    private final List<Node> children;
+
+    public SequenceNode(List<Node> children) {
+        this.children = Collections.unmodifiableList(new ArrayList<>(children));
+    }
+
+    public List<Node> getChildren() {
+        return children;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) throws WordplayException {
+        return visitor.visitSequence(this);
+    }
+}
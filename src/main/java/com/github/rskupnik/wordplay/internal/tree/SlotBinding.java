@@ -0,0 +1,36 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.tree;
+
+import com.github.rskupnik.wordplay.VariableLayout;
+
+/**
+ * The slot of a name in a particular layout, remembered by the node using the name.
+ * Nodes are shared between threads, so a binding is immutable and replaced as a whole -
+ * a thread seeing an outdated one just looks the slot up again.
+ */
+final class SlotBinding {
+
+    final VariableLayout layout;
+    final int slot;
+
+    SlotBinding(VariableLayout layout, int slot) {
+        this.layout = layout;
+        this.slot = slot;
+    }
+}
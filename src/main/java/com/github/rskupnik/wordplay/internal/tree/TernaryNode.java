@@ -0,0 +1,68 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.internal.tree;
+
+import com.github.rskupnik.wordplay.VariableLayout;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+
+/**
+ * The { variable ? when true | when false } expression.
+ * The variable is a node itself, because its name can be injected.
+ */
+public final class TernaryNode extends Node {
+
+    private final Node variable;
+    private final Node whenTrue;
+    private final Node whenFalse;
+    private SlotBinding binding;
+
+    public TernaryNode(Node variable, Node whenTrue, Node whenFalse) {
+        this.variable = variable;
+        this.whenTrue = whenTrue;
+        this.whenFalse = whenFalse;
+    }
+
+    public Node getVariable() {
+        return variable;
+    }
+
+    /**
+     * @return the slot of the variable in the layout, for a variable with a literal name
+     */
+    public int slotIn(VariableLayout layout) {
+        SlotBinding binding = this.binding;
+        if (binding == null || binding.layout != layout) {
+            binding = new SlotBinding(layout, layout.booleanVariableSlot(((LiteralNode) variable).getText()));
+            this.binding = binding;
+        }
+        return binding.slot;
+    }
+
+    public Node getWhenTrue() {
+        return whenTrue;
+    }
+
+    public Node getWhenFalse() {
+        return whenFalse;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) throws WordplayException {
+        return visitor.visitTernary(this);
+    }
+}
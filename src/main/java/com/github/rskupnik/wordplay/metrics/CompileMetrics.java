@@ -0,0 +1,72 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.metrics;
+
+/**
+ * What a single compilation took, stage by stage.
+ * A script taken from the cache wasn't compiled at all, so it has no stage times.
+ */
+public final class CompileMetrics {
+
+    private final boolean cached;
+    private final int inputLength;
+    private final long codeSectionTime;
+    private final long parseTime;
+    private final long linkTime;
+
+    public CompileMetrics(boolean cached, int inputLength, long codeSectionTime, long parseTime, long linkTime) {
+        this.cached = cached;
+        this.inputLength = inputLength;
+        this.codeSectionTime = codeSectionTime;
+        this.parseTime = parseTime;
+        this.linkTime = linkTime;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    /**
+     * @return nanoseconds spent splitting the script and processing the code section
+     */
+    public long getCodeSectionTime() {
+        return codeSectionTime;
+    }
+
+    /**
+     * @return nanoseconds spent parsing the data section and the internal injections into trees
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * @return nanoseconds spent linking internal injections and folding constants
+     */
+    public long getLinkTime() {
+        return linkTime;
+    }
+
+    public long getTotalTime() {
+        return codeSectionTime + parseTime + linkTime;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A listener adding everything up - counters and latency histograms - to be read periodically
+ * and passed on to a monitoring system. Safe to be shared by any number of engines and threads.
+ */
+public final class MetricsAggregator implements WordplayListener {
+
+    private final AtomicLong compileCount = new AtomicLong();
+    private final AtomicLong cachedCompileCount = new AtomicLong();
+    private final AtomicLong renderCount = new AtomicLong();
+    private final AtomicLong cachedRenderCount = new AtomicLong();
+    private final AtomicLong renderCacheMissCount = new AtomicLong();
+    private final AtomicLong outputLength = new AtomicLong();
+    private final AtomicLong anchoredObjectCount = new AtomicLong();
+    private final AtomicLong ternaryCount = new AtomicLong();
+    private final AtomicLong matchingCount = new AtomicLong();
+    private final AtomicLong injectionCount = new AtomicLong();
+
+    private final LatencyHistogram compileLatency = new LatencyHistogram();
+    private final LatencyHistogram codeSectionLatency = new LatencyHistogram();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram linkLatency = new LatencyHistogram();
+    private final LatencyHistogram renderLatency = new LatencyHistogram();
+
+    @Override
+    public void compiled(CompileMetrics metrics) {
+        if (metrics.isCached()) {
+            cachedCompileCount.incrementAndGet();
+            return;
+        }
+
+        compileCount.incrementAndGet();
+        compileLatency.record(metrics.getTotalTime());
+        codeSectionLatency.record(metrics.getCodeSectionTime());
+        parseLatency.record(metrics.getParseTime());
+        linkLatency.record(metrics.getLinkTime());
+    }
+
+    @Override
+    public void rendered(RenderMetrics metrics) {
+        if (metrics.getCacheResult() == RenderMetrics.CacheResult.HIT) {
+            cachedRenderCount.incrementAndGet();
+            return;
+        }
+        if (metrics.getCacheResult() == RenderMetrics.CacheResult.MISS)
+            renderCacheMissCount.incrementAndGet();
+
+        renderCount.incrementAndGet();
+        renderLatency.record(metrics.getRenderTime());
+        outputLength.addAndGet(metrics.getOutputLength());
+        anchoredObjectCount.addAndGet(metrics.getAnchoredObjectCount());
+        ternaryCount.addAndGet(metrics.getTernaryCount());
+        matchingCount.addAndGet(metrics.getMatchingCount());
+        injectionCount.addAndGet(metrics.getInjectionCount());
+    }
+
+    /**
+     * @return the number of scripts actually compiled, not counting the ones taken from the cache
+     */
+    public long getCompileCount() {
+        return compileCount.get();
+    }
+
+    /**
+     * @return the number of scripts taken from the cache instead of being compiled
+     */
+    public long getCachedCompileCount() {
+        return cachedCompileCount.get();
+    }
+
+    /**
+     * @return the number of scripts actually rendered, not counting the outputs taken from the cache
+     */
+    public long getRenderCount() {
+        return renderCount.get();
+    }
+
+    /**
+     * @return the number of outputs taken from the cache instead of being rendered
+     */
+    public long getCachedRenderCount() {
+        return cachedRenderCount.get();
+    }
+
+    /**
+     * @return the number of renders that missed the cache, a part of getRenderCount()
+     */
+    public long getRenderCacheMissCount() {
+        return renderCacheMissCount.get();
+    }
+
+    public long getOutputLength() {
+        return outputLength.get();
+    }
+
+    public long getAnchoredObjectCount() {
+        return anchoredObjectCount.get();
+    }
+
+    public long getTernaryCount() {
+        return ternaryCount.get();
+    }
+
+    public long getMatchingCount() {
+        return matchingCount.get();
+    }
+
+    public long getInjectionCount() {
+        return injectionCount.get();
+    }
+
+    public LatencyHistogram getCompileLatency() {
+        return compileLatency;
+    }
+
+    public LatencyHistogram getCodeSectionLatency() {
+        return codeSectionLatency;
+    }
+
+    public LatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    public LatencyHistogram getLinkLatency() {
+        return linkLatency;
+    }
+
+    public LatencyHistogram getRenderLatency() {
+        return renderLatency;
+    }
+
+    public void reset() {
+        compileCount.set(0);
+        cachedCompileCount.set(0);
+        renderCount.set(0);
+        cachedRenderCount.set(0);
+        renderCacheMissCount.set(0);
+        outputLength.set(0);
+        anchoredObjectCount.set(0);
+        ternaryCount.set(0);
+        matchingCount.set(0);
+        injectionCount.set(0);
+        compileLatency.reset();
+        codeSectionLatency.reset();
+        parseLatency.reset();
+        linkLatency.reset();
+        renderLatency.reset();
+    }
+}
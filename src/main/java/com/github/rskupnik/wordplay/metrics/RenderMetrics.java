@@ -0,0 +1,96 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.metrics;
+
+/**
+ * What a single render took and what it went through.
+ * Expressions are counted every time they're evaluated, only on the branches actually taken.
+ * An output taken from an OutputCache wasn't rendered at all, so it has no time and no expressions.
+ */
+public final class RenderMetrics {
+
+    public enum CacheResult {
+        /** There's no OutputCache, or the output of the script can't be cached */
+        NOT_CACHED,
+        /** The output was taken from the OutputCache */
+        HIT,
+        /** The output was rendered and put in the OutputCache */
+        MISS
+    }
+
+    private final CacheResult cacheResult;
+    private final long renderTime;
+    private final int outputLength;
+    private final int anchoredObjectCount;
+    private final int ternaryCount;
+    private final int matchingCount;
+    private final int injectionCount;
+
+    public RenderMetrics(long renderTime, int outputLength, int anchoredObjectCount,
+                         int ternaryCount, int matchingCount, int injectionCount) {
+        this(CacheResult.NOT_CACHED, renderTime, outputLength, anchoredObjectCount, ternaryCount, matchingCount, injectionCount);
+    }
+
+    public RenderMetrics(CacheResult cacheResult, long renderTime, int outputLength, int anchoredObjectCount,
+                         int ternaryCount, int matchingCount, int injectionCount) {
+        this.cacheResult = cacheResult;
+        this.renderTime = renderTime;
+        this.outputLength = outputLength;
+        this.anchoredObjectCount = anchoredObjectCount;
+        this.ternaryCount = ternaryCount;
+        this.matchingCount = matchingCount;
+        this.injectionCount = injectionCount;
+    }
+
+    public CacheResult getCacheResult() {
+        return cacheResult;
+    }
+
+    /**
+     * @return nanoseconds the render took
+     */
+    public long getRenderTime() {
+        return renderTime;
+    }
+
+    /**
+     * @return the number of characters rendered
+     */
+    public int getOutputLength() {
+        return outputLength;
+    }
+
+    public int getAnchoredObjectCount() {
+        return anchoredObjectCount;
+    }
+
+    public int getTernaryCount() {
+        return ternaryCount;
+    }
+
+    public int getMatchingCount() {
+        return matchingCount;
+    }
+
+    /**
+     * @return the number of injections expanded, internal and external
+     */
+    public int getInjectionCount() {
+        return injectionCount;
+    }
+}
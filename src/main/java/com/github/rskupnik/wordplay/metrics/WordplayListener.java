@@ -0,0 +1,31 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.metrics;
+
+/**
+ * Notified by the engine after every compilation and render, with what it took.
+ * Called on the thread doing the work, so it should be quick and, if the engine is shared, thread-safe.
+ * An engine without a listener doesn't measure anything.
+ * @see MetricsAggregator
+ */
+public interface WordplayListener {
+
+    void compiled(CompileMetrics metrics);
+
+    void rendered(RenderMetrics metrics);
+}
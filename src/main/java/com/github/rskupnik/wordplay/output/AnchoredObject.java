@@ -17,23 +17,28 @@
  */
 package com.github.rskupnik.wordplay.output;
 
-import java.util.HashMap;
+import com.github.rskupnik.wordplay.internal.collect.FlatMap;
+
 import java.util.Map;
 
+/**
+ * Parameters are kept in a compact, immutable map. Objects produced by the same expression
+ * share a single instance of it, no matter how many times the script is rendered.
+ */
 public final class AnchoredObject {
 
     private final String text;
     private final int position;
-    private final Map<String, String> parameters = new HashMap<>();
+    private final FlatMap parameters;
 
     public AnchoredObject(String text, int position) {
-        this.text = text;
-        this.position = position;
+        this(text, position, FlatMap.EMPTY);
     }
 
     public AnchoredObject(String text, int position, Map<String, String> parameters) {
-        this(text, position);
-        this.parameters.putAll(parameters);
+        this.text = text;
+        this.position = position;
+        this.parameters = FlatMap.of(parameters);
     }
 
     public String getText() {
@@ -44,24 +49,30 @@ public final class AnchoredObject {
         return position;
     }
 
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
     public Object getParam(String key) {
         return parameters.get(key);
     }
 
     public boolean getBoolParam(String key) {
-        return Boolean.parseBoolean(parameters.get(key));
+        return parameters.getBool(key);
     }
 
     public String getStringParam(String key) {
         return (String) parameters.get(key);
     }
 
+    /**
+     * @return the parameter as an integer - parsed once, when the script was compiled - or null if it's not one
+     */
     public Integer getIntParam(String key) {
-        Integer out = null;
-        try {
-            out = Integer.parseInt(parameters.get(key));
-        } finally {
-            return out;
-        }
+        return parameters.getInt(key);
+    }
+
+    public int getIntParam(String key, int defaultValue) {
+        return parameters.getInt(key, defaultValue);
     }
 }
@@ -17,41 +17,101 @@
  */
 package com.github.rskupnik.wordplay.output;
 
-import java.util.ArrayList;
+import com.github.rskupnik.wordplay.internal.collect.Numbers;
+
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * A list made only of integers or only of booleans is also kept as an array of primitives,
+ * filled once, when the script is compiled, so reading its elements neither parses nor allocates anything.
+ */
 public final class MetaList extends MetaObject {
 
-    private final List<String> data = new ArrayList<>();
+    private final String[] data;
+    private final int[] ints;           // Null unless all the elements are integers
+    private final boolean[] bools;      // Null unless all the elements are booleans
 
     public MetaList(String id, List<String> data) {
         super(id);
-        this.data.addAll(data);
+        this.data = data.toArray(new String[data.size()]);
+        this.ints = toInts(this.data);
+        this.bools = ints == null ? toBools(this.data) : null;
+    }
+
+    private static int[] toInts(String[] data) {
+        int[] output = new int[data.length];
+        for (int i = 0; i < data.length; i++) {
+            Integer value = Numbers.parseInt(data[i]);
+            if (value == null)
+                return null;
+
+            output[i] = value;
+        }
+        return output;
+    }
+
+    private static boolean[] toBools(String[] data) {
+        boolean[] output = new boolean[data.length];
+        for (int i = 0; i < data.length; i++) {
+            if (!"true".equalsIgnoreCase(data[i]) && !"false".equalsIgnoreCase(data[i]))
+                return null;
+
+            output[i] = Boolean.parseBoolean(data[i]);
+        }
+        return output;
+    }
+
+    public final int size() {
+        return data.length;
     }
 
     public final List<String> getData() {
-        return Collections.unmodifiableList(data);
+        return Collections.unmodifiableList(Arrays.asList(data));
     }
 
     public final Object getObject(int index) {
-        return data.get(index);
+        return data[index];
     }
 
     public final String getString(int index) {
-        return data.get(index);
+        return data[index];
     }
 
     public final int getInt(int index) {
-        Integer out = null;
-        try {
-            out = Integer.parseInt(data.get(index));
-        } finally {
-            return out;
-        }
+        if (ints != null)
+            return ints[index];
+
+        return Numbers.parseInt(data[index]);
+    }
+
+    public final int getInt(int index, int defaultValue) {
+        if (ints != null)
+            return ints[index];
+
+        Integer value = Numbers.parseInt(data[index]);
+        return value != null ? value : defaultValue;
     }
 
     public final boolean getBool(int index) {
-        return Boolean.parseBoolean(data.get(index));
+        if (bools != null)
+            return bools[index];
+
+        return Boolean.parseBoolean(data[index]);
+    }
+
+    /**
+     * @return true if all the elements are integers, which makes getInt() just an array read
+     */
+    public final boolean isIntList() {
+        return ints != null;
+    }
+
+    /**
+     * @return true if all the elements are booleans, which makes getBool() just an array read
+     */
+    public final boolean isBoolList() {
+        return bools != null;
     }
 }
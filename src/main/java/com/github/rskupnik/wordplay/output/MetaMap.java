@@ -17,21 +17,24 @@
  */
 package com.github.rskupnik.wordplay.output;
 
-import java.util.Collections;
-import java.util.HashMap;
+import com.github.rskupnik.wordplay.internal.collect.FlatMap;
+
 import java.util.Map;
 
 public final class MetaMap extends MetaObject {
 
-    private final Map<String, String> data = new HashMap<>();
+    private final FlatMap data;
 
     public MetaMap(String id, Map<String, String> data) {
         super(id);
-        this.data.putAll(data);
+        this.data = FlatMap.shared(data);
     }
 
+    /**
+     * @return an immutable map, shared by all the meta maps with the same entries
+     */
     public final Map<String, String> getData() {
-        return Collections.unmodifiableMap(data);
+        return data;
     }
 
     public final Object getObject(String key) {
@@ -42,16 +45,21 @@ public final class MetaMap extends MetaObject {
         return data.get(key);
     }
 
+    /**
+     * @return the value as an integer - parsed once, when the script was compiled - or null if it's not one
+     */
     public final Integer getInt(String key) {
-        Integer out = null;
-        try {
-            out = Integer.parseInt(data.get(key));
-        } finally {
-            return out;
-        }
+        return data.getInt(key);
+    }
+
+    public final int getInt(String key, int defaultValue) {
+        return data.getInt(key, defaultValue);
     }
 
+    /**
+     * @return whether the value is "true", ignoring case - parsed once, when the script was compiled
+     */
     public final boolean getBool(String key) {
-        return Boolean.parseBoolean(data.get(key));
+        return data.getBool(key);
     }
 }
@@ -0,0 +1,236 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable text made of segments - pieces of the script and injected values, shared rather than copied -
+ * which is turned into a single String only when asked for one, and then only once.
+ * Characters and slices can be read and the text can be written out without that happening.
+ */
+public final class TextRope implements CharSequence {
+
+    static final TextRope EMPTY = new TextRope(new String[0], new int[]{0});
+
+    private final String[] segments;
+    private final int[] starts;     // Where each segment starts, followed by the length of the whole text
+
+    private volatile String flattened;
+
+    private TextRope(String[] segments, int[] starts) {
+        this.segments = segments;
+        this.starts = starts;
+    }
+
+    @Override
+    public int length() {
+        return starts[segments.length];
+    }
+
+    @Override
+    public char charAt(int index) {
+        String flat = flattened;
+        if (flat != null)
+            return flat.charAt(index);
+
+        if (index < 0 || index >= length())
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+
+        int segment = segmentAt(index);
+        return segments[segment].charAt(index - starts[segment]);
+    }
+
+    /**
+     * @return the slice, sharing the segments it covers whole with this text
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length() || start > end)
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length());
+
+        String flat = flattened;
+        if (flat != null)
+            return flat.substring(start, end);
+        if (start == end)
+            return EMPTY;
+
+        int first = segmentAt(start);
+        int last = segmentAt(end - 1);
+        if (first == last)
+            return segments[first].substring(start - starts[first], end - starts[first]);
+
+        String[] slice = Arrays.copyOfRange(segments, first, last + 1);
+        slice[0] = slice[0].substring(start - starts[first]);
+        slice[slice.length - 1] = slice[slice.length - 1].substring(0, end - starts[last]);
+        int[] sliceStarts = new int[slice.length + 1];
+        for (int i = 0; i < slice.length; i++) {
+            sliceStarts[i + 1] = sliceStarts[i] + slice[i].length();
+        }
+        return new TextRope(slice, sliceStarts);
+    }
+
+    /**
+     * Appends the text segment by segment, without turning it into a single String.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        String flat = flattened;
+        if (flat != null) {
+            out.append(flat);
+            return;
+        }
+
+        for (String segment : segments) {
+            out.append(segment);
+        }
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return the whole text, built the first time it's asked for
+     */
+    @Override
+    public String toString() {
+        String flat = flattened;
+        if (flat == null) {
+            if (segments.length == 1) {
+                flat = segments[0];
+            } else {
+                StringBuilder sb = new StringBuilder(length());
+                for (String segment : segments) {
+                    sb.append(segment);
+                }
+                flat = sb.toString();
+            }
+            flattened = flat;
+        }
+        return flat;
+    }
+
+    private int segmentAt(int index) {
+        // Segments are never empty, so no two of them start at the same position
+        int found = Arrays.binarySearch(starts, 0, segments.length, index);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * Collects the segments of a text. Strings long enough are kept as they are,
+     * shorter pieces are copied together, so that there are no more segments than worth it.
+     */
+    public static final class Builder implements Appendable {
+
+        // Below this, a String costs more as a separate segment than it would to copy it
+        private static final int MIN_SEGMENT_LENGTH = 32;
+
+        private final List<String> segments = new ArrayList<>();
+        private final StringBuilder pending = new StringBuilder();
+        private int length;
+
+        @Override
+        public Builder append(CharSequence csq) {
+            if (csq == null)
+                csq = "null";
+
+            if (csq instanceof String && csq.length() >= MIN_SEGMENT_LENGTH) {
+                flushPending();
+                segments.add((String) csq);
+            } else if (csq instanceof TextRope && csq.length() >= MIN_SEGMENT_LENGTH) {
+                flushPending();
+                for (String segment : ((TextRope) csq).segments) {
+                    segments.add(segment);
+                }
+            } else {
+                pending.append(csq);
+            }
+            length += csq.length();
+            return this;
+        }
+
+        @Override
+        public Builder append(CharSequence csq, int start, int end) {
+            return append((csq == null ? "null" : csq).subSequence(start, end));
+        }
+
+        @Override
+        public Builder append(char c) {
+            pending.append(c);
+            length++;
+            return this;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @return the text appended between the two lengths, read from the segments without building the whole text
+         */
+        public String substring(int start, int end) {
+            if (start < 0 || end > length || start > end)
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+
+            // Walk back from the end, the text asked for is usually the one appended last
+            int pendingStart = length - pending.length();
+            int index = segments.size();
+            int offset = pendingStart;
+            while (index > 0 && offset > start) {
+                index--;
+                offset -= segments.get(index).length();
+            }
+
+            StringBuilder sb = new StringBuilder(end - start);
+            for (; index < segments.size() && offset < end; index++) {
+                String segment = segments.get(index);
+                if (offset == start && offset + segment.length() == end)
+                    return segment;
+                if (offset + segment.length() > start)
+                    sb.append(segment, Math.max(start - offset, 0), Math.min(end - offset, segment.length()));
+                offset += segment.length();
+            }
+            if (end > pendingStart)
+                sb.append(pending, Math.max(start - pendingStart, 0), end - pendingStart);
+            return sb.toString();
+        }
+
+        public TextRope build() {
+            flushPending();
+            if (segments.isEmpty())
+                return EMPTY;
+
+            String[] array = segments.toArray(new String[segments.size()]);
+            int[] starts = new int[array.length + 1];
+            for (int i = 0; i < array.length; i++) {
+                starts[i + 1] = starts[i] + array[i].length();
+            }
+            return new TextRope(array, starts);
+        }
+
+        private void flushPending() {
+            if (pending.length() > 0) {
+                segments.add(pending.toString());
+                pending.setLength(0);
+            }
+        }
+    }
+}
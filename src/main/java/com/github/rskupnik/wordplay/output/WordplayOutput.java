@@ -17,19 +17,32 @@
  */
 package com.github.rskupnik.wordplay.output;
 
+import java.io.IOException;
 import java.util.*;
 
+/**
+ * The text may be kept as a TextRope, in which case it's turned into a single String only by getText().
+ * Callers that only write it out or read parts of it can use getTextSequence() instead.
+ */
 public final class WordplayOutput {
 
-    private final String text;
+    private final CharSequence text;
     private final List<AnchoredObject> anchoredObjects = new ArrayList<>();
     private final List<MetaObject> metaObjects = new ArrayList<>();
 
     public WordplayOutput(String text) {
+        this((CharSequence) text);
+    }
+
+    public WordplayOutput(CharSequence text) {
         this.text = text;
     }
 
     public WordplayOutput(String text, List<AnchoredObject> anchoredObjects, List<MetaObject> metaObjects) {
+        this((CharSequence) text, anchoredObjects, metaObjects);
+    }
+
+    public WordplayOutput(CharSequence text, List<AnchoredObject> anchoredObjects, List<MetaObject> metaObjects) {
         this(text);
         if (anchoredObjects != null)
             this.anchoredObjects.addAll(anchoredObjects);
@@ -38,9 +51,27 @@ public final class WordplayOutput {
     }
 
     public final String getText() {
+        return text.toString();
+    }
+
+    /**
+     * @return the text as it's kept, without building a String out of it
+     */
+    public final CharSequence getTextSequence() {
         return text;
     }
 
+    /**
+     * Appends the text without building a String out of it, unless it was built already.
+     */
+    public final void writeTextTo(Appendable out) throws IOException {
+        if (text instanceof TextRope) {
+            ((TextRope) text).writeTo(out);
+        } else {
+            out.append(text);
+        }
+    }
+
     public final List<AnchoredObject> getAnchoredObjects() {
         return Collections.unmodifiableList(anchoredObjects);
     }
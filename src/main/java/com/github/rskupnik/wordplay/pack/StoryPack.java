@@ -0,0 +1,226 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.pack;
+
+import com.github.rskupnik.wordplay.CompiledScript;
+import com.github.rskupnik.wordplay.cache.ScriptCache;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.internal.compiler.ScriptCompiler;
+import com.github.rskupnik.wordplay.internal.preprocessors.HeaderPreprocessor;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Many scenes kept in one or more UTF-8 files, each scene starting with a line holding the scene marker
+ * followed by the scene's id, for example "#$ tavern_intro". Anything before the first marker is ignored.
+ *
+ * The files are memory-mapped rather than read, and opening a pack only indexes where every scene
+ * and its header section begin and end - nothing is decoded or copied onto the heap until a scene is asked for.
+ * Scenes are compiled only when first needed, and kept in the given ScriptCache if there is one.
+ * A scene found in more than one file is taken from the last one, so later files can patch earlier ones.
+ *
+ * A pack is safe to be shared between threads.
+ */
+public final class StoryPack {
+
+    public static final String SCENE_MARKER = "#$";
+
+    private static final byte[] SCENE_MARKER_BYTES = (SCENE_MARKER + " ").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEADER_DELIMINATOR_BYTES = HeaderPreprocessor.DELIMINATOR.getBytes(StandardCharsets.UTF_8);
+
+    private static final ScriptCompiler scriptCompiler = new ScriptCompiler();
+    private static final HeaderPreprocessor headerPreprocessor = new HeaderPreprocessor();
+
+    private final Map<String, Scene> scenes;
+    private final ScriptCache scriptCache;
+
+    private StoryPack(Map<String, Scene> scenes, ScriptCache scriptCache) {
+        this.scenes = scenes;
+        this.scriptCache = scriptCache;
+    }
+
+    public static StoryPack open(Path... files) throws IOException {
+        return open(null, files);
+    }
+
+    /**
+     * @param scriptCache where to keep compiled scenes, keyed by their ids; may be null
+     */
+    public static StoryPack open(ScriptCache scriptCache, Path... files) throws IOException {
+        Map<String, Scene> scenes = new LinkedHashMap<>();
+        for (Path file : files) {
+            // The mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE)
+                    throw new IOException("Pack file too large, split it into files under 2GB: " + file);
+
+                index(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), scenes);
+            }
+        }
+        return new StoryPack(Collections.unmodifiableMap(scenes), scriptCache);
+    }
+
+    public Set<String> getSceneIds() {
+        return scenes.keySet();
+    }
+
+    public boolean contains(String sceneId) {
+        return scenes.containsKey(sceneId);
+    }
+
+    /**
+     * @return the full text of the scene, including its code and header sections
+     */
+    public String getText(String sceneId) {
+        Scene scene = scene(sceneId);
+        return decode(scene.buffer, scene.start, scene.end);
+    }
+
+    /**
+     * Decodes only the header section of the scene, the rest of it is not touched.
+     */
+    public Map<String, String> getHeaders(String sceneId) {
+        Scene scene = scene(sceneId);
+        if (scene.headerStart == -1)
+            return new LinkedHashMap<>();
+
+        // Keep the line ending before the deliminator, it's how the preprocessor finds it
+        int from = scene.headerStart - 1;
+        if (from > scene.start && scene.buffer.get(from) == '\n' && scene.buffer.get(from - 1) == '\r')
+            from--;
+        return headerPreprocessor.process(decode(scene.buffer, from, scene.end));
+    }
+
+    /**
+     * Compiles the scene, or takes it from the cache if it was compiled before.
+     */
+    public CompiledScript compile(String sceneId) throws WordplayException {
+        final Scene scene = scene(sceneId);
+        if (scriptCache == null)
+            return scriptCompiler.compile(decode(scene.buffer, scene.start, scene.end));
+
+        return scriptCache.get(sceneId, new ScriptCache.Loader() {
+            @Override
+            public CompiledScript load() throws WordplayException {
+                return scriptCompiler.compile(decode(scene.buffer, scene.start, scene.end));
+            }
+        });
+    }
+
+    private Scene scene(String sceneId) {
+        Scene scene = scenes.get(sceneId);
+        if (scene == null)
+            throw new IllegalArgumentException("Unknown scene: " + sceneId);
+
+        return scene;
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        // A duplicate has its own position and limit, so the shared buffer is never modified
+        // and going through Buffer keeps it linkable on Java 8, where ByteBuffer doesn't override these
+        ByteBuffer slice = buffer.duplicate();
+        ((Buffer) slice).limit(to).position(from);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    /**
+     * Goes through the file line by line, looking only at the bytes at the beginning of each line.
+     * Markers are plain ASCII, so they can be matched on bytes without decoding anything.
+     */
+    private static void index(ByteBuffer buffer, Map<String, Scene> scenes) {
+        int length = buffer.limit();
+        String id = null;
+        int start = -1;
+        int headerStart = -1;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && buffer.get(lineEnd) != '\n' && buffer.get(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            int next = lineEnd;
+            if (next < length && buffer.get(next) == '\r')
+                next++;
+            if (next < length && buffer.get(next) == '\n' && (next == lineEnd || buffer.get(lineEnd) == '\r'))
+                next++;
+
+            if (startsWith(buffer, lineStart, lineEnd, SCENE_MARKER_BYTES)) {
+                if (id != null)
+                    scenes.put(id, new Scene(buffer, start, endOfPreviousLine(buffer, start, lineStart), headerStart));
+
+                id = decode(buffer, lineStart + SCENE_MARKER_BYTES.length, lineEnd).trim();
+                start = next;
+                headerStart = -1;
+            } else if (id != null && headerStart == -1 && lineStart > start && next > lineEnd
+                    && lineEnd - lineStart == HEADER_DELIMINATOR_BYTES.length
+                    && startsWith(buffer, lineStart, lineEnd, HEADER_DELIMINATOR_BYTES)) {
+                headerStart = lineStart;
+            }
+
+            lineStart = next;
+        }
+
+        if (id != null)
+            scenes.put(id, new Scene(buffer, start, length, headerStart));
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length)
+            return false;
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(from + i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    // The line ending before a marker belongs to the marker, not to the scene before it
+    private static int endOfPreviousLine(ByteBuffer buffer, int sceneStart, int lineStart) {
+        int end = lineStart;
+        if (end > sceneStart && buffer.get(end - 1) == '\n')
+            end--;
+        if (end > sceneStart && buffer.get(end - 1) == '\r')
+            end--;
+        return end;
+    }
+
+    private static final class Scene {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+        private final int headerStart;  // Start of the header deliminator line or -1 if there's none
+
+        private Scene(ByteBuffer buffer, int start, int end, int headerStart) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.headerStart = headerStart;
+        }
+    }
+}
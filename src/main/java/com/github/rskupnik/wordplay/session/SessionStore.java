@@ -0,0 +1,279 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.session;
+
+import com.github.rskupnik.wordplay.VariableLayout;
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.internal.session.SlabAllocator;
+import com.github.rskupnik.wordplay.internal.session.SlabAllocator.Region;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the state of contexts that are not in use - of idle players, for example - as bytes
+ * instead of live objects, either on the heap or, to keep them away from the garbage collector, off it.
+ *
+ * A context can be saved whole or, if it was saved before, by appending only what changed since.
+ * Once the changes appended to a session outgrow its last full snapshot, the next save writes a new snapshot instead.
+ * A context should be saved to a single store, since saving it marks its state as saved.
+ *
+ * Sessions are regions of a few large slabs rather than buffers of their own, so that off the heap there's
+ * a native allocation per slab instead of one per session and every time one grows. The room left behind
+ * by sessions that grew or went away is reclaimed by moving the sessions out of slabs that are mostly free,
+ * once as much has been freed as is still in use.
+ *
+ * The store is thread-safe, but saving the same session from many threads at once leaves it in any of their states.
+ */
+public final class SessionStore {
+
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    // Every entry starts with the length of the snapshot it begins with, followed by the saved state
+    private static final int HEADER = 4;
+
+    private final ConcurrentMap<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final SlabAllocator slabs;
+    private final boolean offHeap;
+
+    /**
+     * Creates a store keeping the sessions on the heap.
+     */
+    public SessionStore() {
+        this(false);
+    }
+
+    /**
+     * @param offHeap whether to keep the sessions in direct buffers
+     */
+    public SessionStore(boolean offHeap) {
+        this(offHeap, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param offHeap whether to keep the sessions in direct buffers
+     * @param slabSize size of the buffers the sessions are kept in, in bytes - larger sessions get a buffer of their own
+     */
+    public SessionStore(boolean offHeap, int slabSize) {
+        this.offHeap = offHeap;
+        this.slabs = new SlabAllocator(offHeap, slabSize);
+    }
+
+    /**
+     * Saves the whole state of the context, replacing whatever was saved under the id before.
+     */
+    public void save(String id, WordplayContext context) {
+        Entry entry = new Entry(context.snapshot());
+        Entry previous = sessions.put(id, entry);
+        long previousSize = previous != null ? previous.retire() : 0;
+        byteCount.addAndGet(entry.used - previousSize);
+        compactIfFragmented();
+    }
+
+    /**
+     * Appends what changed in the context since it was last saved, or saves it whole
+     * if the session is not in the store or it's time to compact it.
+     * The changes go to the room left after the saved state, which doubles whenever it runs out,
+     * so appending costs the size of the changes rather than that of the whole session.
+     */
+    public void saveChanges(String id, WordplayContext context) {
+        Entry saved = sessions.get(id);
+        if (saved == null || saved.needsCompacting()) {
+            save(id, context);
+            return;
+        }
+        if (!context.hasChanges())
+            return;
+
+        byte[] delta = context.delta();
+        if (saved.append(delta)) {
+            byteCount.addAndGet(delta.length);
+            compactIfFragmented();
+        } else {
+            save(id, context);  // Replaced or removed in the meantime, the delta alone wouldn't be enough
+        }
+    }
+
+    /**
+     * @return a new context with the saved state or null if there's no such session
+     */
+    public WordplayContext load(String id, VariableLayout layout) {
+        while (true) {
+            Entry saved = sessions.get(id);
+            if (saved == null)
+                return null;
+
+            WordplayContext context = saved.load(layout);
+            if (context != null)
+                return context;
+            // Replaced or removed while we were getting to it, its memory may already be someone else's
+        }
+    }
+
+    /**
+     * Loads the session and removes it from the store.
+     *
+     * @return the context or null if there's no such session
+     */
+    public WordplayContext take(String id, VariableLayout layout) {
+        WordplayContext context = load(id, layout);
+        if (context != null)
+            remove(id);
+
+        return context;
+    }
+
+    public boolean remove(String id) {
+        Entry removed = sessions.remove(id);
+        if (removed != null) {
+            byteCount.addAndGet(-removed.retire());
+            compactIfFragmented();
+        }
+
+        return removed != null;
+    }
+
+    public boolean contains(String id) {
+        return sessions.containsKey(id);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the number of bytes taken by the saved state of all the sessions,
+     * without the bookkeeping and the room kept for changes to come
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /**
+     * @return the number of bytes of the slabs the sessions are kept in
+     */
+    public long getReservedByteCount() {
+        return slabs.getReservedByteCount();
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Moves the sessions out of the slabs that are mostly free. It only happens once as many bytes have been
+     * freed since the last time as there are in use, so going through all the sessions is paid for by those.
+     */
+    private void compactIfFragmented() {
+        if (!slabs.isFragmented() || !compacting.compareAndSet(false, true))
+            return;
+
+        try {
+            slabs.compacted();
+            for (Entry entry : sessions.values()) {
+                entry.moveIfSparse();
+            }
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    private static void copy(Region from, Region to, int length) {
+        ByteBuffer source = from.buffer();
+        ((Buffer) source).limit(length);
+        to.buffer().put(source);
+    }
+
+    /**
+     * The saved state of a session, in a region with room for the changes to come after it.
+     */
+    private final class Entry {
+
+        private final int snapshotLength;
+        private Region region;
+        private int used;
+        private boolean retired;    // Replaced or removed from the store, the region is free
+
+        private Entry(byte[] snapshot) {
+            this.snapshotLength = snapshot.length;
+            this.used = HEADER + snapshot.length;
+            this.region = slabs.allocate(used);
+            region.buffer().putInt(snapshot.length).put(snapshot);
+        }
+
+        // Once the changes outgrow the snapshot, loading would cost more than writing a new snapshot
+        synchronized boolean needsCompacting() {
+            return used - HEADER > 2 * snapshotLength;
+        }
+
+        synchronized boolean append(byte[] delta) {
+            if (retired)
+                return false;
+
+            if (region.capacity() - used < delta.length) {
+                Region grown = slabs.allocate(Math.max(used + delta.length, 2 * region.capacity()));
+                copy(region, grown, used);
+                slabs.free(region);
+                region = grown;
+            }
+            ByteBuffer buffer = region.buffer();
+            ((Buffer) buffer).position(used);
+            buffer.put(delta);
+            used += delta.length;
+            return true;
+        }
+
+        /**
+         * @return the context or null if the entry is retired
+         */
+        synchronized WordplayContext load(VariableLayout layout) {
+            if (retired)
+                return null;
+
+            // Read while holding the lock, the region may be moved afterwards
+            ByteBuffer state = region.buffer().asReadOnlyBuffer();
+            ((Buffer) state).limit(used).position(HEADER);
+            return new WordplayContext(layout).apply(state);
+        }
+
+        synchronized void moveIfSparse() {
+            if (retired || !slabs.isSparse(region))
+                return;
+
+            Region moved = slabs.allocate(region.capacity());
+            copy(region, moved, used);
+            slabs.free(region);
+            region = moved;
+        }
+
+        /**
+         * @return the number of bytes the entry held
+         */
+        synchronized long retire() {
+            retired = true;
+            slabs.free(region);
+            return used;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.stream;
+
+import com.github.rskupnik.wordplay.WordplayContext;
+import com.github.rskupnik.wordplay.exceptions.WordplayException;
+import com.github.rskupnik.wordplay.exceptions.WordplayProcessingException;
+import com.github.rskupnik.wordplay.internal.compiler.DataParser;
+import com.github.rskupnik.wordplay.internal.compiler.InjectionLinker;
+import com.github.rskupnik.wordplay.internal.preprocessors.HeaderPreprocessor;
+import com.github.rskupnik.wordplay.internal.processors.CodeProcessor;
+import com.github.rskupnik.wordplay.internal.render.TreeRenderer;
+import com.github.rskupnik.wordplay.internal.tree.Node;
+import com.github.rskupnik.wordplay.output.AnchoredObject;
+import com.github.rskupnik.wordplay.output.MetaObject;
+import org.javatuples.Pair;
+import org.javatuples.Triplet;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Processes documents too large to be held in memory, reading them from a file, a channel or a Reader
+ * and writing the text to a Writer as it goes, using buffers of a fixed size.
+ *
+ * The code and header sections are at the end of a document, so they are found first by scanning the document
+ * backwards, without keeping what was scanned, and only they are read into memory. The data section is then read
+ * forwards and rendered piece by piece, each piece ending outside of any expression, so memory use depends on
+ * the buffer size and the largest expression - text after a brace that's never closed counts as a part of it.
+ * As when a document is processed whole, it's the first line with just a $ that starts the code section, so once
+ * the backward scan finds one, what comes before it is scanned forwards for an earlier one.
+ * Anchored objects give their positions as ints, so a document with one further than that into its text is rejected.
+ *
+ * Input that can't be read backwards - a Reader or a channel that is not seekable - is first copied to
+ * a temporary file. Bytes are decoded as UTF-8. A processor is thread-safe.
+ */
+public final class StreamProcessor {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final byte[] CODE_DELIMITER = "$".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEADER_DELIMITER = HeaderPreprocessor.DELIMINATOR.getBytes(StandardCharsets.UTF_8);
+
+    private final int bufferSize;
+
+    public StreamProcessor() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize size of the buffers, in bytes and characters, and of the pieces the data section is rendered in
+     */
+    public StreamProcessor(int bufferSize) {
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("bufferSize has to be at least 16");
+
+        this.bufferSize = bufferSize;
+    }
+
+    public StreamResult process(Path input, WordplayContext context, Writer out) throws WordplayException, IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            return process(channel, context, out);
+        }
+    }
+
+    /**
+     * Reads the channel from its beginning, copying it to a temporary file first if it's not seekable.
+     * The channel is not closed.
+     */
+    public StreamResult process(ReadableByteChannel input, WordplayContext context, Writer out) throws WordplayException, IOException {
+        if (input instanceof SeekableByteChannel)
+            return process((SeekableByteChannel) input, context, out);
+
+        Path spooled = Files.createTempFile("wordplay", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(spooled, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+                while (input.read(buffer) != -1) {
+                    ((Buffer) buffer).flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    ((Buffer) buffer).clear();
+                }
+            }
+            return process(spooled, context, out);
+        } finally {
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    /**
+     * Copies what the reader gives to a temporary file, then processes the file. The reader is not closed.
+     */
+    public StreamResult process(Reader input, WordplayContext context, Writer out) throws WordplayException, IOException {
+        Path spooled = Files.createTempFile("wordplay", ".tmp");
+        try {
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(spooled), StandardCharsets.UTF_8)) {
+                char[] buffer = new char[bufferSize];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    writer.write(buffer, 0, read);
+                }
+            }
+            return process(spooled, context, out);
+        } finally {
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    private StreamResult process(SeekableByteChannel channel, WordplayContext context, Writer out) throws WordplayException, IOException {
+        long size = channel.size();
+        long[] delimiters = findDelimiters(channel, size);
+        long codeStart = delimiters[0];
+        long tailStart = codeStart == -1 ? delimiters[1] : delimiters[1] == -1 ? codeStart : Math.min(codeStart, delimiters[1]);
+
+        // Parsed the same way as a whole document would be, there's just no data before the sections
+        String tail = tailStart == -1 ? "" : read(channel, tailStart, size);
+        Map<String, String> headers = new HeaderPreprocessor().process(tail);
+        Map<String, Node> injections = new HashMap<>();
+        List<MetaObject> metaObjects = new ArrayList<>();
+        if (codeStart != -1) {
+            Triplet<String, ArrayList<Pair<String, String>>, ArrayList<MetaObject>> code = new CodeProcessor().parse(tail);
+            DataParser dataParser = new DataParser();
+            for (Pair<String, String> injection : code.getValue1()) {
+                injections.put(injection.getValue0(), dataParser.parse(injection.getValue1()));
+            }
+            metaObjects.addAll(code.getValue2());
+        }
+
+        Renderer renderer = new Renderer(InjectionLinker.resolve(injections), context, out);
+        renderData(channel, codeStart == -1 ? size : codeStart, renderer);
+        return new StreamResult(renderer.length, renderer.anchoredObjects, metaObjects, headers);
+    }
+
+    /**
+     * Scans the channel backwards for the lines that start the code and the header sections,
+     * then forwards up to the code section found, for where they first appear.
+     *
+     * @return positions of the line endings before the first line with just a $ and the first one with just a !$,
+     *         -1 for the ones that are not found
+     */
+    private long[] findDelimiters(SeekableByteChannel channel, long size) throws IOException {
+        long[] delimiters = {-1, -1};
+        int overlap = HEADER_DELIMITER.length + 3;  // Enough for a delimiter line split between two blocks
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize + overlap);
+        long end = size;
+        while (end > 0 && delimiters[0] == -1) {
+            long start = Math.max(0, end - bufferSize);
+            int length = (int) (Math.min(size, end + overlap) - start);
+            readFully(channel, buffer, start, length);
+
+            for (int i = length - 1; i >= 0 && delimiters[0] == -1; i--) {
+                if (buffer.get(i) != '\n' || start + i >= end)
+                    continue;
+
+                if (isLine(buffer, i + 1, length, HEADER_DELIMITER))
+                    delimiters[1] = lineEndingStart(channel, start + i);
+                if (isLine(buffer, i + 1, length, CODE_DELIMITER))
+                    delimiters[0] = lineEndingStart(channel, start + i);
+            }
+            end = start;
+        }
+
+        if (delimiters[0] != -1)
+            findFirstDelimiters(channel, size, buffer, overlap, delimiters);
+        return delimiters;
+    }
+
+    /**
+     * Scans the channel forwards up to the code section found by the backward scan, stopping at the first
+     * line with just a $ - the data section may contain more of them - and noting any line with just a !$ on the way.
+     */
+    private void findFirstDelimiters(SeekableByteChannel channel, long size, ByteBuffer buffer, int overlap,
+                                     long[] delimiters) throws IOException {
+        long end = delimiters[0];
+        for (long start = 0; start < end; start += bufferSize) {
+            int length = (int) (Math.min(size, start + bufferSize + overlap) - start);
+            readFully(channel, buffer, start, length);
+
+            for (int i = 0; i < bufferSize && start + i < end; i++) {
+                if (buffer.get(i) != '\n')
+                    continue;
+
+                if (isLine(buffer, i + 1, length, HEADER_DELIMITER) && (delimiters[1] == -1 || start + i < delimiters[1]))
+                    delimiters[1] = lineEndingStart(channel, start + i);
+                if (isLine(buffer, i + 1, length, CODE_DELIMITER)) {
+                    delimiters[0] = lineEndingStart(channel, start + i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return position of the \r before the \n at the given position, if there is one, or of the \n
+     */
+    private static long lineEndingStart(SeekableByteChannel channel, long newLine) throws IOException {
+        if (newLine == 0)
+            return newLine;
+
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        readFully(channel, previous, newLine - 1, 1);
+        return previous.get(0) == '\r' ? newLine - 1 : newLine;
+    }
+
+    /**
+     * @return whether the bytes from the given index up to the next line ending are exactly the given line
+     */
+    private static boolean isLine(ByteBuffer buffer, int from, int length, byte[] line) {
+        if (from + line.length >= length)
+            return false;
+
+        for (int i = 0; i < line.length; i++) {
+            if (buffer.get(from + i) != line[i])
+                return false;
+        }
+
+        int next = from + line.length;
+        return buffer.get(next) == '\n' || (buffer.get(next) == '\r' && next + 1 < length && buffer.get(next + 1) == '\n');
+    }
+
+    private String read(SeekableByteChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+        readFully(channel, buffer, from, buffer.capacity());
+        return new String(buffer.array(), 0, buffer.capacity(), StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(SeekableByteChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit(length);
+        channel.position(position);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1)
+                throw new EOFException("Unexpected end of input at " + (position + buffer.position()));
+        }
+    }
+
+    private void renderData(SeekableByteChannel channel, long end, Renderer renderer) throws WordplayException, IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(bufferSize);
+        CharBuffer chars = CharBuffer.allocate(bufferSize);
+        Segmenter segmenter = new Segmenter(renderer, bufferSize);
+
+        channel.position(0);
+        long position = 0;
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            int toRead = (int) Math.min(bytes.remaining(), end - position);
+            ((Buffer) bytes).limit(bytes.position() + toRead);
+            while (bytes.hasRemaining()) {
+                int read = channel.read(bytes);
+                if (read == -1)
+                    throw new EOFException("Unexpected end of input at " + position);
+                position += read;
+            }
+            endOfInput = position == end;
+
+            ((Buffer) bytes).flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                segmenter.feed(chars);
+            } while (result.isOverflow());
+            bytes.compact();
+        }
+
+        while (decoder.flush(chars).isOverflow()) {
+            segmenter.feed(chars);
+        }
+        segmenter.feed(chars);
+        segmenter.finish();
+    }
+
+    /**
+     * Cuts the data section into pieces that can be parsed on their own - ending outside of any braces -
+     * once they reach the target size.
+     */
+    private static final class Segmenter {
+
+        private final Renderer renderer;
+        private final int targetSize;
+        private final StringBuilder pending = new StringBuilder();
+        private int depth;
+
+        private Segmenter(Renderer renderer, int targetSize) {
+            this.renderer = renderer;
+            this.targetSize = targetSize;
+        }
+
+        private void feed(CharBuffer chars) throws WordplayException, IOException {
+            ((Buffer) chars).flip();
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                pending.append(c);
+                if (c == '{') {
+                    depth++;
+                } else if (c == '}' && depth > 0) {
+                    depth--;
+                }
+                if (depth == 0 && pending.length() >= targetSize)
+                    flush();
+            }
+            ((Buffer) chars).clear();
+        }
+
+        private void finish() throws WordplayException, IOException {
+            if (pending.length() > 0)
+                flush();
+        }
+
+        private void flush() throws WordplayException, IOException {
+            renderer.render(pending.toString());
+            pending.setLength(0);
+        }
+    }
+
+    private static final class Renderer {
+
+        private final DataParser dataParser = new DataParser();
+        private final InjectionLinker linker;
+        private final WordplayContext context;
+        private final Writer out;
+        private final StringBuilder text = new StringBuilder();
+
+        private final List<AnchoredObject> anchoredObjects = new ArrayList<>();
+        private long length;
+
+        private Renderer(InjectionLinker linker, WordplayContext context, Writer out) {
+            this.linker = linker;
+            this.context = context;
+            this.out = out;
+        }
+
+        private void render(String data) throws WordplayException, IOException {
+            Node node = linker.link(dataParser.parse(data));
+            text.setLength(0);
+            List<AnchoredObject> rendered = new TreeRenderer(context, linker.getInjections()).render(node, text);
+            for (AnchoredObject anchoredObject : rendered) {
+                long position = length + anchoredObject.getPosition();
+                if (position > Integer.MAX_VALUE)
+                    throw new WordplayProcessingException("Anchored object at position " + position
+                            + " can't be given a position, the limit is " + Integer.MAX_VALUE);
+
+                anchoredObjects.add(new AnchoredObject(anchoredObject.getText(), (int) position, anchoredObject.getParameters()));
+            }
+            out.append(text);
+            length += text.length();
+        }
+    }
+}
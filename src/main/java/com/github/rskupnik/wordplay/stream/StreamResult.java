@@ -0,0 +1,63 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay.stream;
+
+import com.github.rskupnik.wordplay.output.AnchoredObject;
+import com.github.rskupnik.wordplay.output.MetaObject;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything a streamed document produced besides its text, which went straight to the Writer.
+ * Positions of anchored objects are counted from the first character written.
+ */
+public final class StreamResult {
+
+    private final long length;
+    private final List<AnchoredObject> anchoredObjects;
+    private final List<MetaObject> metaObjects;
+    private final Map<String, String> headers;
+
+    StreamResult(long length, List<AnchoredObject> anchoredObjects, List<MetaObject> metaObjects, Map<String, String> headers) {
+        this.length = length;
+        this.anchoredObjects = Collections.unmodifiableList(anchoredObjects);
+        this.metaObjects = Collections.unmodifiableList(metaObjects);
+        this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @return the number of characters written
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public List<AnchoredObject> getAnchoredObjects() {
+        return anchoredObjects;
+    }
+
+    public List<MetaObject> getMetaObjects() {
+        return metaObjects;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+}
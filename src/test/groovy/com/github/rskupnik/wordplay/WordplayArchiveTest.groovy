@@ -0,0 +1,168 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.archive.ScriptArchive
+import com.github.rskupnik.wordplay.archive.ScriptArchiveWriter
+import com.github.rskupnik.wordplay.exceptions.WordplayException
+import com.github.rskupnik.wordplay.output.MetaList
+import com.github.rskupnik.wordplay.output.MetaMap
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import com.github.rskupnik.wordplay.pack.StoryPack
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+class WordplayArchiveTest extends Specification {
+
+    private static final String SCENE = "The {> guard} is {awake ? watching the {> gate} | asleep}, " +
+            "the {zone:forest trees |:town houses | void} are {< effect:shake|tint:red shaking}.\n" +
+            "\$\n" +
+            "> guard {old ? old | young} guard\n" +
+            "> gate northern gate\n" +
+            "<m map key:val|key2:5\n" +
+            "< list one|two\n" +
+            "!\$\n" +
+            "mood tense"
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    def "should render loaded scripts the same as freshly compiled ones"() {
+        given:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        new ScriptArchiveWriter().add("scene", SCENE).add("other", "Just {> text}.").writeTo(out)
+
+        when:
+        ScriptArchive archive = ScriptArchive.read(ByteBuffer.wrap(out.toByteArray()))
+        WordplayOutput loaded = wordplay.render(archive.getScript("scene"), context)
+        WordplayOutput compiled = wordplay.render(wordplay.compile(SCENE), context)
+
+        then:
+        archive.getScriptIds() as List == ["scene", "other"]
+        loaded.getText() == compiled.getText()
+        loaded.getAnchoredObjects()*.getPosition() == compiled.getAnchoredObjects()*.getPosition()
+        loaded.getAnchoredObjects()*.getParameters() == compiled.getAnchoredObjects()*.getParameters()
+        ((MetaMap) loaded.getMetaObjects().get(0)).getData() == [key: "val", key2: "5"]
+        ((MetaList) loaded.getMetaObjects().get(1)).getData() == ["one", "two"]
+        archive.getHeaders("scene") == [mood: "tense"]
+        wordplay.render(archive.getScript("other"), new WordplayContext().inject("text", "this")).getText() == "Just this."
+
+        where:
+        context << [
+                new WordplayContext(),
+                new WordplayContext().setVariable("awake", true).setVariable("old", true).setVariable("zone", "town")
+        ]
+    }
+
+    def "should store every string only once"() {
+        given:
+        ByteArrayOutputStream many = new ByteArrayOutputStream()
+        String script = "A rather long piece of text that is repeated {x ? here | there}."
+
+        when:
+        ScriptArchiveWriter writer = new ScriptArchiveWriter()
+        (0..<100).each { writer.add(String.valueOf(it), script) }
+        writer.writeTo(many)
+
+        then:
+        new String(many.toByteArray(), StandardCharsets.ISO_8859_1).count("A rather long piece") == 1
+    }
+
+    def "should load an archive compiled from a story pack from a file"() {
+        given:
+        File pack = File.createTempFile("wordplay", ".pack")
+        pack.setBytes("#\$ first\nFirst {> who}.\n\$\n> who scene\n#\$ second\nSecond scene.".getBytes(StandardCharsets.UTF_8))
+        File file = File.createTempFile("wordplay", ".wpa")
+
+        when:
+        ScriptArchiveWriter.main(file.getPath(), pack.getPath())
+        ScriptArchive archive = ScriptArchive.read(file.toPath())
+
+        then:
+        wordplay.render(archive.getScript("first"), new WordplayContext()).getText() == "First scene."
+        wordplay.render(archive.getScript("second"), new WordplayContext()).getText() == "Second scene."
+
+        cleanup:
+        pack.delete()
+        file.delete()
+    }
+
+    def "should reject what isn't a valid archive"() {
+        when:
+        ScriptArchive.read(ByteBuffer.wrap(bytes as byte[]))
+
+        then:
+        thrown(IOException)
+
+        where:
+        bytes << [
+                [1, 2, 3, 4, 5],
+                [0x57, 0x50, 0x4C, 0x59, 99],
+                [0x57, 0x50, 0x4C, 0x59, 1, 5]
+        ]
+    }
+
+    def "should reject nodes referring to nodes not decoded yet"() {
+        given:
+        // One literal "x" and a sequence of it and the node given, the sequence being the root
+        List<Integer> bytes = [0x57, 0x50, 0x4C, 0x59, 1, 1, 1, 0x78, 1, 0, 2, 0, 0, 1, 2, 0, child, 1, 0, 0, 0]
+
+        when:
+        ScriptArchive archive = ScriptArchive.read(ByteBuffer.wrap(bytes as byte[]))
+
+        then:
+        IOException e = thrown()
+        e.getMessage().startsWith("Corrupted script archive")
+
+        where:
+        child << [1, 2, 100]
+    }
+
+    def "should reject a truncated or damaged archive without failing any other way"() {
+        given:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        new ScriptArchiveWriter().add("scene", SCENE).writeTo(out)
+        byte[] valid = out.toByteArray()
+        List<byte[]> damaged = (0..<valid.length).collect { int length -> Arrays.copyOf(valid, length) }
+        (5..<valid.length).each { int i ->
+            [0, 1, 2, 0x7F, -1].each { int value ->
+                byte[] bytes = valid.clone()
+                bytes[i] = (byte) value
+                damaged.add(bytes)
+            }
+        }
+
+        expect:
+        damaged.every { byte[] bytes ->
+            try {
+                ScriptArchive archive = ScriptArchive.read(ByteBuffer.wrap(bytes))
+                archive.getScriptIds().each { String id ->
+                    try {
+                        wordplay.render(archive.getScript(id), new WordplayContext())
+                    } catch (WordplayException ignored) {
+                        // Damaged text may well refer to injections that aren't there
+                    }
+                }
+                return bytes.length == valid.length
+            } catch (IOException ignored) {
+                return true
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.async.AsyncWordplay
+import com.github.rskupnik.wordplay.async.RejectionPolicy
+import com.github.rskupnik.wordplay.async.RenderFuture
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import spock.lang.Specification
+
+import java.util.concurrent.*
+
+class WordplayAsyncTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+    private final CountDownLatch blocker = new CountDownLatch(1)
+    private final ExecutorService executor = Executors.newSingleThreadExecutor()
+
+    def cleanup() {
+        blocker.countDown()
+        executor.shutdownNow()
+    }
+
+    def "should render asynchronously"() {
+        given:
+        AsyncWordplay async = new AsyncWordplay(wordplay, 4, 100, RejectionPolicy.ABORT)
+        List<RenderFuture> futures = (0..<50).collect { int i ->
+            async.process("Scene " + i + " is {lit ? bright | dark}.", new WordplayContext().setVariable("lit", true))
+        }
+
+        expect:
+        futures.every { it.get(5, TimeUnit.SECONDS).getText().endsWith("is bright.") }
+        futures[7].get().getText() == "Scene 7 is bright."
+
+        cleanup:
+        async.shutdown()
+    }
+
+    def "should call the callbacks"() {
+        given:
+        AsyncWordplay async = new AsyncWordplay(wordplay, executor, 10, RejectionPolicy.ABORT)
+        List<Object> results = new CopyOnWriteArrayList<>()
+        RenderFuture.Callback callback = new RenderFuture.Callback() {
+            void onSuccess(WordplayOutput output) { results.add(output.getText()) }
+            void onFailure(Throwable cause) { results.add(cause) }
+        }
+
+        when:
+        RenderFuture good = async.process("Hello", new WordplayContext())
+        RenderFuture bad = async.process("Hello, {> name}!", new WordplayContext())
+        good.addCallback(callback)
+        bad.addCallback(callback)
+        executor.shutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+        good.addCallback(callback)  // Already done
+
+        then:
+        results.size() == 3
+        results.count { it == "Hello" } == 2
+        results.find { it instanceof WordplayInjectionException } != null
+    }
+
+    def "should time out a render that didn't start in time"() {
+        given:
+        AsyncWordplay async = new AsyncWordplay(wordplay, executor, 10, RejectionPolicy.ABORT)
+        executor.execute({ blocker.await() } as Runnable)
+
+        when:
+        RenderFuture future = async.process("Hello", new WordplayContext(), 50, TimeUnit.MILLISECONDS)
+        future.get(5, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown()
+        e.getCause() instanceof TimeoutException
+
+        when:
+        blocker.countDown()
+        executor.shutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+
+        then:
+        async.getPendingCount() == 0
+    }
+
+    def "should reject renders over the limit"() {
+        given:
+        AsyncWordplay async = new AsyncWordplay(wordplay, executor, 2, RejectionPolicy.ABORT)
+        executor.execute({ blocker.await() } as Runnable)
+
+        when:
+        RenderFuture first = async.process("First", new WordplayContext())
+        RenderFuture second = async.process("Second", new WordplayContext())
+        RenderFuture third = async.process("Third", new WordplayContext())
+        third.get()
+
+        then:
+        async.getPendingCount() == 2
+        !first.isDone()
+        ExecutionException e = thrown()
+        e.getCause() instanceof RejectedExecutionException
+
+        when:
+        blocker.countDown()
+
+        then:
+        first.get(5, TimeUnit.SECONDS).getText() == "First"
+        second.get(5, TimeUnit.SECONDS).getText() == "Second"
+    }
+
+    def "should run renders over the limit on the caller's thread"() {
+        given:
+        AsyncWordplay async = new AsyncWordplay(wordplay, executor, 1, RejectionPolicy.CALLER_RUNS)
+        executor.execute({ blocker.await() } as Runnable)
+
+        when:
+        RenderFuture first = async.process("First", new WordplayContext())
+        RenderFuture second = async.process("Second", new WordplayContext())
+
+        then:
+        !first.isDone()
+        second.isDone()
+        second.get().getText() == "Second"
+    }
+
+    def "should block the caller until a render finishes"() {
+        given:
+        AsyncWordplay async = new AsyncWordplay(wordplay, executor, 1, RejectionPolicy.BLOCK)
+        executor.execute({ blocker.await() } as Runnable)
+        RenderFuture first = async.process("First", new WordplayContext())
+        Thread.start { Thread.sleep(100); blocker.countDown() }
+
+        when:
+        RenderFuture second = async.process("Second", new WordplayContext())
+
+        then:
+        first.isDone()
+        second.get(5, TimeUnit.SECONDS).getText() == "Second"
+    }
+
+    def "should stop blocking the caller when the timeout runs out"() {
+        given:
+        AsyncWordplay async = new AsyncWordplay(wordplay, executor, 1, RejectionPolicy.BLOCK)
+        executor.execute({ blocker.await() } as Runnable)
+        RenderFuture first = async.process("First", new WordplayContext())
+
+        when:
+        long start = System.nanoTime()
+        RenderFuture second = async.process("Second", new WordplayContext(), 100, TimeUnit.MILLISECONDS)
+        long blocked = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        second.get(5, TimeUnit.SECONDS)
+
+        then:
+        blocked >= 100 && blocked < 5000
+        ExecutionException e = thrown()
+        e.getCause() instanceof TimeoutException
+        async.getPendingCount() == 1
+
+        when:
+        blocker.countDown()
+
+        then:
+        first.get(5, TimeUnit.SECONDS).getText() == "First"
+    }
+}
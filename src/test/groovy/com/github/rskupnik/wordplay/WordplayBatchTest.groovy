@@ -0,0 +1,97 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException
+import com.github.rskupnik.wordplay.exceptions.WordplaySyntaxException
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+class WordplayBatchTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    def "should process all the scripts and keep their order"() {
+        given:
+        List<String> inputs = (0..<5000).collect { int i -> "Scene " + i + " is {lit ? bright | dark}." }
+        WordplayContext context = new WordplayContext().setVariable("lit", true)
+
+        when:
+        List<BatchResult> results = wordplay.processAll(inputs, context)
+
+        then:
+        results.size() == inputs.size()
+        results.every { it.isSuccessful() }
+        (0..<5000).every { int i -> results.get(i).getOutput().getText() == "Scene " + i + " is bright." }
+    }
+
+    def "should isolate the failures of single scripts"() {
+        given:
+        List<String> inputs = ["It is {sunny ? sunny | rainy}.", "Text.\n\$\n key,value", "Hello, {> name}!", "The end."]
+
+        when:
+        List<BatchResult> results = wordplay.processAll(inputs, new WordplayContext())
+
+        then:
+        results*.isSuccessful() == [true, false, false, true]
+        results.get(0).getOutput().getText() == "It is rainy."
+        results.get(1).getException() instanceof WordplaySyntaxException
+        results.get(2).getException() instanceof WordplayInjectionException
+        results.get(2).getOutput() == null
+        results.get(3).getOutput().getText() == "The end."
+    }
+
+    def "should isolate scripts with malformed code sections"() {
+        given:
+        List<String> inputs = ["ok text", "a\n\$\n> x", "{b ? x | y}", "b\n\$\n<m", "c\n\$\n<l list", "d\n\$\n> x y\n!\$"]
+
+        when:
+        List<BatchResult> results = wordplay.processAll(inputs, new WordplayContext())
+
+        then:
+        results*.isSuccessful() == [true, false, true, false, false, false]
+        results.get(0).getOutput().getText() == "ok text"
+        results.get(1).getException() instanceof WordplaySyntaxException
+        results.get(2).getOutput().getText() == "y"
+        results.get(3).getException() instanceof WordplaySyntaxException
+        results.get(4).getException() instanceof WordplaySyntaxException
+        results.get(5).getException() instanceof WordplaySyntaxException
+    }
+
+    def "should run on the given executor"() {
+        given:
+        ExecutorService executor = Executors.newFixedThreadPool(3)
+        List<String> inputs = (0..<100).collect { int i -> "{> who} number " + i }
+
+        when:
+        List<BatchResult> results = wordplay.processAll(inputs, new WordplayContext().inject("who", "guard"), executor)
+
+        then:
+        results*.getOutput()*.getText() == (0..<100).collect { int i -> "guard number " + i }
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "should return nothing for no scripts"() {
+        expect:
+        wordplay.processAll([], new WordplayContext()).isEmpty()
+    }
+}
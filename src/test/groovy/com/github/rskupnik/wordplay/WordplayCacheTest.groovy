@@ -0,0 +1,276 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.cache.CacheStats
+import com.github.rskupnik.wordplay.cache.OutputCache
+import com.github.rskupnik.wordplay.cache.ScriptCache
+import com.github.rskupnik.wordplay.exceptions.WordplaySyntaxException
+import com.github.rskupnik.wordplay.metrics.CompileMetrics
+import com.github.rskupnik.wordplay.metrics.MetricsAggregator
+import com.github.rskupnik.wordplay.metrics.RenderMetrics
+import com.github.rskupnik.wordplay.metrics.WordplayListener
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+class WordplayCacheTest extends Specification {
+
+    def "should compile each distinct script only once"() {
+        given:
+        ScriptCache cache = new ScriptCache(100)
+        Wordplay wordplay = new WordplayImpl(cache)
+        String input = "It was a {weather_sunny ? sunny | rainy} day."
+
+        when:
+        wordplay.setVariable("weather_sunny", true)
+        String first = wordplay.process(input).getText()
+        wordplay.setVariable("weather_sunny", false)
+        String second = wordplay.process(input).getText()
+        CacheStats stats = cache.stats()
+
+        then:
+        first == "It was a sunny day."
+        second == "It was a rainy day."
+        stats.getHitCount() == 1
+        stats.getMissCount() == 1
+        stats.getLoadCount() == 1
+        stats.getTotalLoadTime() > 0
+        stats.getHitRate() == 0.5d
+        wordplay.compile(input).is(wordplay.compile(input))
+    }
+
+    def "should cache scripts under the id given by the caller"() {
+        given:
+        ScriptCache cache = new ScriptCache(100)
+        Wordplay wordplay = new WordplayImpl(cache)
+
+        when:
+        CompiledScript script = wordplay.compile("scene-1", "The first scene.")
+        CompiledScript cached = wordplay.compile("scene-1", "Not looked at, the id is already cached.")
+
+        then:
+        script.is(cached)
+        wordplay.render(cached).getText() == "The first scene."
+        cache.size() == 1
+    }
+
+    def "should evict least recently used scripts when full"() {
+        given:
+        ScriptCache cache = new ScriptCache(1)
+        Wordplay wordplay = new WordplayImpl(cache)
+
+        when:
+        wordplay.compile("a", "First.")
+        wordplay.compile("b", "Second.")
+        wordplay.compile("a", "First.")
+
+        then:
+        cache.size() == 1
+        cache.stats().getEvictionCount() == 2
+        cache.stats().getMissCount() == 3
+        cache.getIfPresent("a") != null
+        cache.getIfPresent("b") == null
+    }
+
+    def "should never grow over the maximum size"() {
+        given:
+        ScriptCache cache = new ScriptCache(50)
+        Wordplay wordplay = new WordplayImpl(cache)
+
+        when:
+        (0..<1000).each { wordplay.compile("Scene number " + it + ".") }
+
+        then:
+        cache.size() <= 50
+        cache.stats().getEvictionCount() == 1000 - cache.size()
+    }
+
+    def "should not cache a script that failed to compile"() {
+        given:
+        ScriptCache cache = new ScriptCache(10)
+        Wordplay wordplay = new WordplayImpl(cache)
+
+        when:
+        wordplay.compile("Text.\n\$\n key,value")
+
+        then:
+        thrown(WordplaySyntaxException)
+        cache.size() == 0
+        cache.stats().getMissCount() == 1
+        cache.stats().getLoadCount() == 0
+    }
+
+    def "should be safe to use from many threads"() {
+        given:
+        ScriptCache cache = new ScriptCache(16)
+        Wordplay wordplay = new WordplayImpl(cache)
+        ExecutorService executor = Executors.newFixedThreadPool(8)
+
+        when:
+        List<Boolean> results = (0..<4000).collect { int i ->
+            executor.submit({
+                int scene = i % 32
+                WordplayContext context = new WordplayContext().setVariable("on", i % 2 == 0)
+                String text = wordplay.process("Scene " + scene + " is {on ? on | off}.", context).getText()
+                return text == "Scene " + scene + " is " + (i % 2 == 0 ? "on" : "off") + "."
+            } as Callable<Boolean>)
+        }.collect { it.get() }
+
+        then:
+        results.every { it }
+        cache.size() <= 16
+        cache.stats().getRequestCount() == 4000
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "should share outputs between contexts agreeing on the read set"() {
+        given:
+        OutputCache outputs = new OutputCache(100)
+        Wordplay wordplay = new WordplayImpl(new ScriptCache(100), outputs, null)
+        String input = "The door is {door_open ? open | closed}, {weather:rain it rains | it's calm}. {> guard} waits."
+
+        when:
+        WordplayOutput first = wordplay.process(input, new WordplayContext()
+                .setVariable("door_open", true).setVariable("weather", "rain").inject("guard", "Bob").setVariable("gold", "12"))
+        WordplayOutput second = wordplay.process(input, new WordplayContext()
+                .inject("guard", "Bob").setVariable("weather", "rain").setVariable("door_open", true).setVariable("level", true))
+        WordplayOutput third = wordplay.process(input, new WordplayContext()
+                .setVariable("door_open", false).setVariable("weather", "").inject("guard", "Bob"))
+        WordplayOutput fourth = wordplay.process(input, new WordplayContext().inject("guard", "Bob"))
+        CacheStats stats = outputs.stats()
+
+        then:
+        first.getText() == "The door is open, it rains. Bob waits."
+        second.is(first)
+        third.getText() == "The door is closed, it's calm. Bob waits."
+        fourth.is(third)
+        stats.getHitCount() == 2
+        stats.getMissCount() == 2
+        outputs.size() == 2
+    }
+
+    def "should hit the output cache in process() without a script cache, compiling only on misses"() {
+        given:
+        OutputCache outputs = new OutputCache(100)
+        MetricsAggregator aggregator = new MetricsAggregator()
+        Wordplay wordplay = new WordplayImpl(null, outputs, aggregator)
+        String input = "The door is {door_open ? open | closed}."
+
+        when:
+        WordplayOutput first = wordplay.process(input, new WordplayContext().setVariable("door_open", true))
+        WordplayOutput second = wordplay.process(input, new WordplayContext().setVariable("door_open", true))
+        WordplayOutput third = wordplay.process(input, new WordplayContext().setVariable("door_open", true))
+        WordplayOutput fourth = wordplay.process(input, new WordplayContext())
+        CacheStats stats = outputs.stats()
+
+        then:
+        first.getText() == "The door is open."
+        second.is(first)
+        third.is(first)
+        fourth.getText() == "The door is closed."
+        stats.getHitCount() == 2
+        stats.getMissCount() == 2
+        outputs.size() == 2
+        aggregator.getCompileCount() == 2
+        aggregator.getRenderCount() == 2
+        aggregator.getRenderCacheMissCount() == 2
+        aggregator.getCachedRenderCount() == 2
+    }
+
+    def "should report output cache hits and misses to the listener"() {
+        given:
+        List<RenderMetrics> rendered = []
+        WordplayListener listener = new WordplayListener() {
+            void compiled(CompileMetrics metrics) {}
+            void rendered(RenderMetrics metrics) { rendered.add(metrics) }
+        }
+        Wordplay wordplay = new WordplayImpl(new ScriptCache(10), new OutputCache(10), listener)
+        CompiledScript script = wordplay.compile("The door is {door_open ? open | closed}. Hello, {> who}.")
+        WordplayContext context = new WordplayContext().setVariable("door_open", true).inject("who", "Bob")
+        WordplayContext dynamic = new WordplayContext().inject("who", "{mood:happy friend | stranger}")
+
+        when:
+        wordplay.render(script, context)
+        wordplay.render(script, context)
+        wordplay.render(script, dynamic)
+
+        then:
+        rendered*.getCacheResult() == [RenderMetrics.CacheResult.MISS, RenderMetrics.CacheResult.HIT, RenderMetrics.CacheResult.NOT_CACHED]
+        rendered.get(1).getOutputLength() == "The door is open. Hello, Bob.".length()
+        rendered.get(1).getRenderTime() == 0
+        rendered.get(1).getTernaryCount() == 0
+    }
+
+    def "should not cache outputs whose read set is not known up front"() {
+        given:
+        OutputCache outputs = new OutputCache(100)
+        Wordplay wordplay = new WordplayImpl(null, outputs, null)
+        CompiledScript script = wordplay.compile(input)
+
+        when:
+        WordplayOutput first = wordplay.render(script, context)
+        WordplayOutput second = wordplay.render(script, context)
+
+        then:
+        !second.is(first)
+        second.getText() == first.getText()
+        outputs.getUncacheableCount() == 2
+        outputs.stats().getRequestCount() == 0
+
+        where:
+        input                     | context
+        "{flag_{> n} ? on | off}" | new WordplayContext().inject("n", "1").setVariable("flag_1", true)
+        "Hello, {> who}."         | new WordplayContext().inject("who", "{mood:happy friend | stranger}")
+    }
+
+    def "should derive the read set of a script"() {
+        given:
+        Wordplay wordplay = new WordplayImpl()
+        CompiledScript script = wordplay.compile("{a ? {> x} | {b ? B | -}} {w:1 {> y} | {> z}} {> inner}\n\$\n> inner {c ? C | }")
+
+        when:
+        ReadSet readSet = script.getReadSet()
+
+        then:
+        readSet.getInjections() as Set == ["x", "y", "z"] as Set
+        readSet.getBooleanVariables() as Set == ["a", "b", "c"] as Set
+        readSet.getVariables() == ["w"]
+        !readSet.hasDynamicNames()
+        script.getReadSet().is(readSet)
+    }
+
+    def "should evict the least recently used outputs"() {
+        given:
+        OutputCache outputs = new OutputCache(10)
+        Wordplay wordplay = new WordplayImpl(null, outputs, null)
+        CompiledScript script = wordplay.compile("Room {> n}")
+
+        when:
+        (0..<50).each { int i -> wordplay.render(script, new WordplayContext().inject("n", String.valueOf(i))) }
+
+        then:
+        outputs.size() <= 10
+        outputs.stats().getEvictionCount() >= 40
+    }
+}
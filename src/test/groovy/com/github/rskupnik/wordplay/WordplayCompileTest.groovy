@@ -0,0 +1,168 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException
+import com.github.rskupnik.wordplay.output.AnchoredObject
+import com.github.rskupnik.wordplay.output.MetaList
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.CharBuffer
+
+class WordplayCompileTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    def setup() {
+        wordplay.reset()
+    }
+
+    @Unroll
+    def "should render a compiled script many times with different variables: #_sunny_, #_color_"() {
+        given:
+        CompiledScript script = wordplay.compile("It was a {weather_sunny ? sunny | rainy} day " +
+                "and the table was {color:brown brown |:blue blue | black}.")
+
+        when:
+        wordplay.setVariable("weather_sunny", _sunny_)
+        wordplay.setVariable("color", _color_)
+        WordplayOutput output = wordplay.render(script)
+
+        then:
+        output.getText() == _result_
+
+        where:
+        _result_                                              | _sunny_ | _color_
+        "It was a sunny day and the table was brown."         | true    | "brown"
+        "It was a rainy day and the table was blue."          | false   | "blue"
+        "It was a sunny day and the table was black."         | true    | "red"
+    }
+
+    def "should keep the compiled script intact between resets"() {
+        given:
+        CompiledScript script = wordplay.compile("There was a {> guard} standing at the {> 0}.\n" +
+                "\$\n" +
+                "> 0 wall\n" +
+                "<l mobs Dreadful Vampire|Fearful Wolf")
+
+        when:
+        wordplay.inject("guard", "tired guard")
+        WordplayOutput first = wordplay.render(script)
+        wordplay.reset()
+        wordplay.inject("guard", "{< state:awake vigilant guard}")
+        WordplayOutput second = wordplay.render(script)
+
+        then:
+        first.getText() == "There was a tired guard standing at the wall."
+        first.getAnchoredObjects().isEmpty()
+        second.getText() == "There was a vigilant guard standing at the wall."
+        AnchoredObject anchoredObject = second.getAnchoredObjects().get(0)
+        anchoredObject.getText() == "vigilant guard"
+        anchoredObject.getPosition() == "There was a ".length()
+        ((MetaList) first.getMetaObjects().get(0)).getString(1) == "Fearful Wolf"
+        second.getMetaObjects().size() == 1
+    }
+
+    def "should render anchored objects nested in each other"() {
+        given:
+        CompiledScript script = wordplay.compile("The {< tint:blue magic {< effect:vibrate stone}} lay there.")
+
+        when:
+        WordplayOutput output = wordplay.render(script)
+
+        then:
+        output.getText() == "The magic stone lay there."
+        output.getAnchoredObjects().size() == 2
+        output.getAnchoredObjects().get(0).getText() == "magic stone"
+        output.getAnchoredObjects().get(0).getPosition() == 4
+        output.getAnchoredObjects().get(1).getText() == "stone"
+        output.getAnchoredObjects().get(1).getPosition() == 10
+    }
+
+    def "should resolve more than one ternary expression in a single line"() {
+        given:
+        CompiledScript script = wordplay.compile("It was {day ? a day | a night} and {rain ? raining | dry}.")
+
+        when:
+        wordplay.setVariable("day", true)
+        WordplayOutput output = wordplay.render(script)
+
+        then:
+        output.getText() == "It was a day and dry."
+    }
+
+    def "should throw exception at render time when injection is not provided"() {
+        given:
+        CompiledScript script = wordplay.compile("There was a {> guard} standing at the wall.")
+
+        when:
+        wordplay.render(script)
+
+        then:
+        thrown(WordplayInjectionException)
+    }
+
+    def "should stream the rendered text into a Writer and report anchored objects on the side"() {
+        given:
+        CompiledScript script = wordplay.compile("The {< tint:grey stone} was {vibrate ? {< effect:vibrate vibrating} | calm}.")
+        WordplayContext context = new WordplayContext().setVariable("vibrate", true)
+        StringWriter writer = new StringWriter()
+
+        when:
+        List<AnchoredObject> anchoredObjects = wordplay.render(script, context, writer)
+
+        then:
+        writer.toString() == "The stone was vibrating."
+        anchoredObjects.size() == 2
+        anchoredObjects.get(0).getText() == "stone"
+        anchoredObjects.get(0).getPosition() == 4
+        anchoredObjects.get(1).getText() == "vibrating"
+        anchoredObjects.get(1).getPosition() == 14
+    }
+
+    def "should stream the rendered text into a CharBuffer"() {
+        given:
+        CompiledScript script = wordplay.compile("The sky was {> sky}.")
+        CharBuffer buffer = CharBuffer.allocate(64)
+
+        when:
+        wordplay.render(script, new WordplayContext().inject("sky", "clear"), buffer)
+
+        then:
+        buffer.flip().toString() == "The sky was clear."
+    }
+
+    def "should pass on the exception thrown by the Appendable"() {
+        given:
+        CompiledScript script = wordplay.compile("The sky was clear.")
+        Writer writer = new StringWriter() {
+            @Override
+            Writer append(CharSequence csq) throws IOException {
+                throw new IOException("closed")
+            }
+        }
+
+        when:
+        wordplay.render(script, new WordplayContext(), writer)
+
+        then:
+        thrown(IOException)
+    }
+}
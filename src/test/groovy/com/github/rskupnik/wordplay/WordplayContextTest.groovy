@@ -0,0 +1,257 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+class WordplayContextTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    def "should render with the given context instead of the engine's own variables"() {
+        given:
+        String input = "It was a {weather_sunny ? sunny | rainy} day, said the {> person}."
+        WordplayContext context = new WordplayContext()
+                .setVariable("weather_sunny", true)
+                .inject("person", "guard")
+
+        when:
+        wordplay.setVariable("weather_sunny", false)
+        wordplay.inject("person", "farmer")
+        WordplayOutput output = wordplay.process(input, context)
+
+        then:
+        output.getText() == "It was a sunny day, said the guard."
+        wordplay.process(input).getText() == "It was a rainy day, said the farmer."
+    }
+
+    def "should render the same compiled script from many threads with their own contexts"() {
+        given:
+        CompiledScript script = wordplay.compile("Player {> id} is {alive ? alive | dead} " +
+                "in the {zone:forest forest |:town town | void}.")
+        ExecutorService executor = Executors.newFixedThreadPool(8)
+
+        when:
+        List<Future<Boolean>> results = (0..<2000).collect { int i ->
+            executor.submit({
+                WordplayContext context = new WordplayContext()
+                        .inject("id", String.valueOf(i))
+                        .setVariable("alive", i % 2 == 0)
+                        .setVariable("zone", i % 3 == 0 ? "forest" : "town")
+                String expected = "Player " + i + " is " + (i % 2 == 0 ? "alive" : "dead") +
+                        " in the " + (i % 3 == 0 ? "forest" : "town") + "."
+                return wordplay.render(script, context).getText() == expected
+            } as Callable<Boolean>)
+        }
+
+        then:
+        results.every { it.get() }
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "should render with variables set by slot"() {
+        given:
+        VariableLayout layout = new VariableLayout()
+        int alive = layout.booleanVariableSlot("alive")
+        int zone = layout.variableSlot("zone")
+        int id = layout.injectionSlot("id")
+        CompiledScript script = wordplay.compile("Player {> id} is {alive ? alive | dead} in the {zone:forest forest |:town town | void}.")
+
+        when:
+        WordplayContext first = new WordplayContext(layout).setVariable(alive, true).setVariable(zone, "town").inject(id, "one")
+        WordplayContext second = new WordplayContext(layout).setVariable(alive, false).inject(id, "two")
+
+        then:
+        wordplay.render(script, first).getText() == "Player one is alive in the town."
+        wordplay.render(script, second).getText() == "Player two is dead in the void."
+        first.getBooleanVariable("alive")
+        first.getVariable("zone") == "town"
+        second.getVariable("zone") == null
+    }
+
+    def "should agree on slots set by name and by slot"() {
+        given:
+        VariableLayout layout = new VariableLayout()
+        WordplayContext context = new WordplayContext(layout).setVariable("door_open", true)
+
+        expect:
+        context.getBooleanVariable(layout.booleanVariableSlot("door_open"))
+        context.getBooleanVariable("unknown") == null
+        context.getBooleanVariable(layout.findBooleanVariableSlot("unknown")) == null
+        layout.getBooleanVariableName(layout.findBooleanVariableSlot("door_open")) == "door_open"
+    }
+
+    def "should render the same script with contexts of different layouts"() {
+        given:
+        CompiledScript script = wordplay.compile("{a ? A | -}{b ? B | -}{x_{> n} ? X | -}")
+        List<WordplayContext> contexts = (0..<200).collect { int i ->
+            VariableLayout layout = new VariableLayout()
+            // Register the names in a different order for every layout, so their slots differ
+            if (i % 2 == 0)
+                layout.booleanVariableSlot("b")
+            new WordplayContext(layout).setVariable(i % 2 == 0 ? "a" : "b", true).setVariable("x_" + i, true).inject("n", String.valueOf(i))
+        }
+
+        expect:
+        (0..<200).every { int i -> wordplay.render(script, contexts.get(i)).getText() == (i % 2 == 0 ? "A-X" : "-BX") }
+    }
+
+    def "should keep variables with many slots apart"() {
+        given:
+        WordplayContext context = new WordplayContext()
+        (0..<300).each { int i -> context.setVariable("flag" + i, i % 3 == 0) }
+
+        when:
+        context.setVariable("flag7", true)
+        context.setVariable("flag9", false)
+
+        then:
+        (0..<300).every { int i ->
+            context.getBooleanVariable("flag" + i) == (i == 7 || (i % 3 == 0 && i != 9))
+        }
+
+        when:
+        context.reset()
+
+        then:
+        context.getBooleanVariable("flag0") == null
+    }
+
+    def "should not add names made up at render time to the layout"() {
+        given:
+        VariableLayout layout = new VariableLayout()
+        CompiledScript script = wordplay.compile("{flag_{> n} ? on | off} {zone_{> n}:town town | elsewhere}")
+
+        when:
+        List<String> texts = (0..<10).collect { int i ->
+            wordplay.render(script, new WordplayContext(layout).inject("n", "" + i)).getText()
+        }
+
+        then:
+        texts.every { it == "off elsewhere" }
+        (0..<10).every { int i ->
+            layout.findBooleanVariableSlot("flag_" + i) == -1 && layout.findVariableSlot("zone_" + i) == -1
+        }
+        wordplay.render(script, new WordplayContext(layout).inject("n", "3")
+                .setVariable("flag_3", true).setVariable("zone_3", "town")).getText() == "on town"
+    }
+
+    def "should fork a context without affecting it"() {
+        given:
+        CompiledScript script = wordplay.compile("The door is {door_open ? open | closed}, it's {weather:sun sunny | rainy}. {> man} waits.")
+        WordplayContext context = new WordplayContext()
+                .setVariable("door_open", false)
+                .setVariable("weather", "sun")
+                .inject("man", "A guard")
+
+        when:
+        WordplayContext fork = context.fork().setVariable("door_open", true).inject("man", "A thief")
+
+        then:
+        wordplay.render(script, fork).getText() == "The door is open, it's sunny. A thief waits."
+        wordplay.render(script, context).getText() == "The door is closed, it's sunny. A guard waits."
+
+        when:
+        context.setVariable("weather", "rain")
+        context.reset()
+
+        then:
+        wordplay.render(script, fork).getText() == "The door is open, it's sunny. A thief waits."
+        fork.fork().getVariable("weather") == "sun"
+    }
+
+    def "should fork without copying the arrays until the changes grow large"() {
+        given:
+        WordplayContext context = new WordplayContext()
+        (0..<1000).each { int i -> context.setVariable("var_" + i, "v" + i).setVariable("flag_" + i, true).inject("n_" + i, "" + i) }
+        byte[] saved = context.snapshot()
+        context.setVariable("var_0", "changed")
+
+        when:
+        WordplayContext fork = context.fork().setVariable("var_1", "forked").setVariable("flag_1", false)
+                .inject("n_1", "").setVariable("new_var", "new")
+        context.setVariable("var_2", "parent")
+
+        then:
+        fork.@variables.is(context.@variables)
+        fork.@booleanVariables.is(context.@booleanVariables)
+        fork.@injectedObjects.is(context.@injectedObjects)
+        fork.getVariable("var_0") == "changed"
+        fork.getVariable("var_1") == "forked"
+        fork.getVariable("var_2") == "v2"
+        fork.getVariable("new_var") == "new"
+        !fork.getBooleanVariable("flag_1")
+        fork.getInjection("n_1") == null
+        context.getVariable("var_1") == "v1"
+        context.getVariable("var_2") == "parent"
+        context.getVariable("new_var") == null
+        context.getBooleanVariable("flag_1")
+        context.getInjection("n_1") != null
+
+        when: "the fork saves its changes, its parent's unsaved one included"
+        WordplayContext restored = new WordplayContext().apply(saved).apply(fork.delta())
+
+        then:
+        !fork.hasChanges()
+        restored.getVariable("var_0") == "changed"
+        restored.getVariable("var_1") == "forked"
+        restored.getVariable("var_2") == "v2"
+        restored.getVariable("new_var") == "new"
+        !restored.getBooleanVariable("flag_1")
+        restored.getInjection("n_1") == null
+
+        when: "a fork changes a large part of its values"
+        WordplayContext busy = context.fork()
+        (0..<500).each { int i -> busy.setVariable("var_" + i, "busy") }
+
+        then:
+        !busy.@variables.is(context.@variables)
+        (0..<500).every { int i -> busy.getVariable("var_" + i) == "busy" }
+        busy.getVariable("var_500") == "v500"
+        context.getVariable("var_3") == "v3"
+        busy.hasChanges()
+    }
+
+    def "should render forks on other threads while the parent changes"() {
+        given:
+        CompiledScript script = wordplay.compile("{flag ? on | off} {> n}")
+        WordplayContext context = new WordplayContext().setVariable("flag", true)
+        ExecutorService executor = Executors.newFixedThreadPool(4)
+
+        when:
+        List<Future<String>> previews = (0..<500).collect { int i ->
+            WordplayContext fork = context.fork().inject("n", String.valueOf(i))
+            context.setVariable("flag", i % 2 == 0).inject("n", "changed")
+            executor.submit({ wordplay.render(script, fork).getText() } as Callable<String>)
+        }
+
+        then:
+        (0..<500).every { int i -> previews[i].get() == (i == 0 || i % 2 == 1 ? "on " : "off ") + i }
+
+        cleanup:
+        executor.shutdown()
+    }
+}
@@ -139,6 +139,86 @@ class WordplayEmissionTest extends Specification {
         anchoredObject.getStringParam("effect") == "vibrate"
     }
 
+    def "should emit any number of anchored objects at their exact positions"() {
+        given:
+        String input = (0..<3000).collect { int i -> "Word {< id:" + i + " number" + i + "} and" }.join(" ")
+
+        when:
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        List<AnchoredObject> anchoredObjects = output.getAnchoredObjects()
+        anchoredObjects.size() == 3000
+        (0..<3000).every { int i ->
+            AnchoredObject anchoredObject = anchoredObjects.get(i)
+            anchoredObject.getIntParam("id") == i &&
+                    anchoredObject.getText() == "number" + i &&
+                    output.getText().startsWith(anchoredObject.getText() + " ", anchoredObject.getPosition())
+        }
+    }
+
+    def "should emit the same anchored objects when streaming the text"() {
+        given:
+        String input = "A {< outer:1 big {< inner:2 magic} stone} and {< other:3 {> 0}}.\n" +
+                "\$\n" +
+                "> 0 {< deep:4 glowing} dust"
+        CompiledScript script = wordplay.compile(input)
+        StringWriter writer = new StringWriter()
+
+        when:
+        WordplayOutput output = wordplay.render(script)
+        List<AnchoredObject> streamed = wordplay.render(script, new WordplayContext(), writer)
+
+        then:
+        output.getText() == "A big magic stone and glowing dust."
+        writer.toString() == output.getText()
+        output.getAnchoredObjects()*.getText() == ["big magic stone", "magic", "glowing dust", "glowing"]
+        streamed*.getText() == output.getAnchoredObjects()*.getText()
+        streamed*.getPosition() == output.getAnchoredObjects()*.getPosition()
+        output.getAnchoredObjects().every { output.getText().startsWith(it.getText(), it.getPosition()) }
+    }
+
+    def "should share the parameters of anchored objects with the same ones"() {
+        given:
+        CompiledScript script = wordplay.compile("{< type:rune|color:red first} and {< type:rune|color:red second}")
+
+        when:
+        WordplayOutput first = wordplay.render(script)
+        WordplayOutput second = wordplay.render(script)
+
+        then:
+        List<AnchoredObject> anchoredObjects = first.getAnchoredObjects() + second.getAnchoredObjects()
+        anchoredObjects*.getParameters().every { it.is(anchoredObjects.get(0).getParameters()) }
+        anchoredObjects.get(0).getParameters() == [type: "rune", color: "red"]
+        anchoredObjects.get(0).getStringParam("color") == "red"
+    }
+
+    def "should not share parameters listed in another order"() {
+        given:
+        CompiledScript script = wordplay.compile("{< type:rune|color:red first} and {< color:red|type:rune second}")
+
+        when:
+        List<AnchoredObject> anchoredObjects = wordplay.render(script).getAnchoredObjects()
+
+        then:
+        anchoredObjects.get(0).getParameters() == anchoredObjects.get(1).getParameters()
+        !anchoredObjects.get(0).getParameters().is(anchoredObjects.get(1).getParameters())
+        anchoredObjects.get(0).getParameters().keySet() as List == ["type", "color"]
+        anchoredObjects.get(1).getParameters().keySet() as List == ["color", "type"]
+    }
+
+    def "should not let the parameters of anchored objects be modified"() {
+        given:
+        AnchoredObject anchoredObject = wordplay.process("{< effect:vibrate vibrating}").getAnchoredObjects().get(0)
+
+        when:
+        anchoredObject.getParameters().put("effect", "shake")
+
+        then:
+        thrown(UnsupportedOperationException)
+        anchoredObject.getStringParam("effect") == "vibrate"
+    }
+
     @Unroll
     def "should ignore when syntax is invalid: expr=#_expr_"() {
         given:
@@ -242,5 +322,66 @@ class WordplayEmissionTest extends Specification {
         WordplaySyntaxException | "eist keyvalue|key2value2"
         WordplaySyntaxException | " eist keyvalue|key2value2"
     }
+
+    def "should share the data of equal meta maps"() {
+        given:
+        String input = "Some random text.\n" +
+                "\$\n" +
+                "<m first type:rune|color:red\n" +
+                "<m second type:rune|color:red"
+
+        when:
+        List<MetaObject> metaObjects = wordplay.process(input).getMetaObjects()
+
+        then:
+        MetaMap first = (MetaMap) metaObjects.get(0)
+        MetaMap second = (MetaMap) metaObjects.get(1)
+        first.getId() == "first"
+        second.getId() == "second"
+        first.getData().is(second.getData())
+        first.getData() == [type: "rune", color: "red"]
+    }
+
+    def "should read typed values parsed when the script was compiled"() {
+        given:
+        String input = "A {< size:5000|name:rune|huge:99999999999|lit:True rune}.\n" +
+                "\$\n" +
+                "<m map count:1200|label:many|ready:true\n" +
+                "<l numbers 1|-20|300\n" +
+                "<l flags true|FALSE|true\n" +
+                "<l mixed 1|two|3"
+
+        when:
+        WordplayOutput output = wordplay.process(input)
+        AnchoredObject anchoredObject = output.getAnchoredObjects().get(0)
+        MetaMap map = (MetaMap) output.getMetaObjects().get(0)
+        MetaList numbers = (MetaList) output.getMetaObjects().get(1)
+        MetaList flags = (MetaList) output.getMetaObjects().get(2)
+        MetaList mixed = (MetaList) output.getMetaObjects().get(3)
+
+        then:
+        anchoredObject.getIntParam("size") == 5000
+        anchoredObject.getIntParam("size", 0) == 5000
+        anchoredObject.getBoolParam("lit")
+        !anchoredObject.getBoolParam("name")
+        !anchoredObject.getBoolParam("missing")
+        anchoredObject.getIntParam("name") == null
+        anchoredObject.getIntParam("huge") == null
+        anchoredObject.getIntParam("missing", -1) == -1
+        map.getInt("count") == 1200
+        map.getInt("label") == null
+        map.getInt("label", 7) == 7
+        map.getBool("ready")
+        !map.getBool("count")
+        numbers.isIntList()
+        (0..2).collect { numbers.getInt(it) } == [1, -20, 300]
+        flags.isBoolList()
+        (0..2).collect { flags.getBool(it) } == [true, false, true]
+        !mixed.isIntList()
+        !mixed.isBoolList()
+        mixed.getInt(2) == 3
+        mixed.getInt(1, 0) == 0
+        mixed.getString(1) == "two"
+    }
     //endregion
 }
@@ -0,0 +1,93 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.index.HeaderIndex
+import com.github.rskupnik.wordplay.pack.StoryPack
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class WordplayHeaderIndexTest extends Specification {
+
+    private final HeaderIndex index = new HeaderIndex()
+
+    def setup() {
+        index.put("ambush", [chapter: "3", tag: "combat-forest"])
+        index.put("duel", [chapter: "3", tag: "combat-town"])
+        index.put("market", [chapter: "2", tag: "trade"])
+        index.put("epilogue", [:])
+    }
+
+    def "should find scenes by the exact value of a header"() {
+        expect:
+        index.find("chapter", "3") == ["ambush", "duel"] as Set
+        index.find("chapter", "2") == ["market"] as Set
+        index.find("chapter", "1").isEmpty()
+        index.find("missing", "3").isEmpty()
+    }
+
+    def "should find scenes by the prefix of a value"() {
+        expect:
+        index.findByPrefix("tag", "combat") as List == ["ambush", "duel"]
+        index.findByPrefix("tag", "combat-t") as List == ["duel"]
+        index.findByPrefix("tag", "t") as List == ["market"]
+        index.findByKey("tag") == ["ambush", "duel", "market"] as Set
+    }
+
+    def "should replace the headers of a scene that's added again"() {
+        when:
+        index.put("duel", [chapter: "4"])
+
+        then:
+        index.find("chapter", "3") == ["ambush"] as Set
+        index.find("chapter", "4") == ["duel"] as Set
+        index.findByPrefix("tag", "combat") == ["ambush"] as Set
+        index.getHeaders("duel") == [chapter: "4"]
+    }
+
+    def "should forget removed scenes"() {
+        when:
+        index.remove("market")
+        index.remove("unknown")
+
+        then:
+        !index.contains("market")
+        index.size() == 3
+        index.find("tag", "trade").isEmpty()
+        index.findByKey("chapter") == ["ambush", "duel"] as Set
+    }
+
+    def "should index the headers of scripts and story packs"() {
+        given:
+        File pack = File.createTempFile("wordplay", ".pack")
+        pack.setBytes(("#\$ first\nFirst.\n!\$\nchapter 5\n" +
+                "#\$ second\nSecond.\n!\$\nchapter 6").getBytes(StandardCharsets.UTF_8))
+
+        when:
+        index.putAll(StoryPack.open(pack.toPath()))
+        index.put("script", "Text.\n!\$\nchapter 5")
+
+        then:
+        index.find("chapter", "5") == ["first", "script"] as Set
+        index.find("chapter", "6") == ["second"] as Set
+
+        cleanup:
+        pack.delete()
+    }
+}
@@ -18,6 +18,8 @@
 package com.github.rskupnik.wordplay
 
 import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException
+import com.github.rskupnik.wordplay.metrics.MetricsAggregator
+import com.github.rskupnik.wordplay.output.AnchoredObject
 import com.github.rskupnik.wordplay.output.WordplayOutput
 import spock.lang.Specification
 import spock.lang.Unroll
@@ -234,6 +236,107 @@ class WordplayInjectionTest extends Specification {
         output.getText() == "The sky was clear."
     }
 
+    @Unroll
+    def "should reject cyclic internal injections when compiling: #_code_"() {
+        given:
+        String input = "The sky was {> 0}.\n" +
+                        "\$\n" + _code_
+
+        when:
+        wordplay.compile(input)
+
+        then:
+        thrown(WordplayInjectionException)
+
+        where:
+        _code_ << [
+                "> 0 {> 0}",
+                "> 0 {> 1}\n> 1 {> 0}",
+                "> 0 {> 1}\n> 1 {> 2}\n> 2 {weather_sunny ? {> 0} | clear}",
+                "> 0 clear\n> 1 {> 2}\n> 2 {< effect:glow {> 1}}"
+        ]
+    }
+
+    def "should reject cyclic injections that go through an external injection"() {
+        given:
+        String input = "There was a {> 0} standing in the middle of the room.\n" +
+                        "\$\n" +
+                        "> 0 {> man}"
+
+        when:
+        wordplay.inject("man", "{> 0}")
+        wordplay.process(input)
+
+        then:
+        thrown(WordplayInjectionException)
+    }
+
+    def "should reject cyclic external injections"() {
+        given:
+        String input = "There was a {> man} standing in the middle of the room."
+
+        when:
+        wordplay.inject("man", "{> woman}")
+        wordplay.inject("woman", "tired {> man}")
+        wordplay.process(input)
+
+        then:
+        thrown(WordplayInjectionException)
+    }
+
+    def "should expand a long chain of internal injections"() {
+        given:
+        String input = "The sky was {> 0}.\n" +
+                        "\$\n" +
+                        (0..<200).collect { "> " + it + " {> " + (it + 1) + "}" }.join("\n") + "\n" +
+                        "> 200 {weather_sunny ? clear | {> sky}}"
+
+        when:
+        wordplay.inject("sky", "clouded")
+        wordplay.setVariable("weather_sunny", _sunny_)
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        output.getText() == _result_
+
+        where:
+        _result_                | _sunny_
+        "The sky was clear."    | true
+        "The sky was clouded."  | false
+    }
+
+    def "should expand an injection referenced many times once per render"() {
+        given:
+        String input = "{> who} met {> who}. {< kind:scene {> who} left.}\n" +
+                        "\$\n" +
+                        "> who {< kind:name {title ? Sir | } {> name}}"
+        MetricsAggregator metrics = new MetricsAggregator()
+        Wordplay wordplay = new WordplayImpl(null, metrics)
+        WordplayContext context = new WordplayContext().setVariable("title", true).inject("name", "Tom")
+        CompiledScript script = wordplay.compile(input)
+
+        when:
+        WordplayOutput output = wordplay.render(script, context)
+        StringWriter writer = new StringWriter()
+        List<AnchoredObject> written = wordplay.render(script, context, writer)
+
+        then:
+        output.getText() == "Sir Tom met Sir Tom. Sir Tom left."
+        writer.toString() == output.getText()
+        [output.getAnchoredObjects(), written].every { List<AnchoredObject> objects ->
+            objects*.getText() == ["Sir Tom", "Sir Tom", "Sir Tom left.", "Sir Tom"] &&
+                    objects*.getPosition() == [0, 12, 21, 21] &&
+                    objects*.getStringParam("kind") == ["name", "name", "scene", "name"]
+        }
+        metrics.getTernaryCount() == 2 * 2
+
+        when:
+        context.setVariable("title", false)
+
+        then:
+        wordplay.render(script, context).getText() == " Tom met  Tom.  Tom left."
+    }
+
     def "should throw exception when internal injection object is not provided"() {
         given:
         String input = "The sky was {> 0}.\n"+
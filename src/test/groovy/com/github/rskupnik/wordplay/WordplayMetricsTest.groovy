@@ -0,0 +1,115 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.cache.ScriptCache
+import com.github.rskupnik.wordplay.metrics.CompileMetrics
+import com.github.rskupnik.wordplay.metrics.LatencyHistogram
+import com.github.rskupnik.wordplay.metrics.MetricsAggregator
+import com.github.rskupnik.wordplay.metrics.RenderMetrics
+import com.github.rskupnik.wordplay.metrics.WordplayListener
+import spock.lang.Specification
+
+class WordplayMetricsTest extends Specification {
+
+    private static final String SCRIPT = "The {> guard} is {awake ? watching the {> gate} | asleep} " +
+            "in the {zone:forest forest |:town town | void}, {< tint:red glowing}.\n" +
+            "\$\n" +
+            "> guard old guard"
+
+    def "should report every compilation and render to the listener"() {
+        given:
+        List<CompileMetrics> compiled = []
+        List<RenderMetrics> rendered = []
+        WordplayListener listener = new WordplayListener() {
+            @Override
+            void compiled(CompileMetrics metrics) {
+                compiled.add(metrics)
+            }
+
+            @Override
+            void rendered(RenderMetrics metrics) {
+                rendered.add(metrics)
+            }
+        }
+        Wordplay wordplay = new WordplayImpl(null, listener)
+
+        when:
+        String text = wordplay.process(SCRIPT, new WordplayContext().setVariable("awake", true).inject("gate", "gate")).getText()
+
+        then:
+        text == "The old guard is watching the gate in the void, glowing."
+        compiled.size() == 1
+        !compiled.get(0).isCached()
+        compiled.get(0).getInputLength() == SCRIPT.length()
+        compiled.get(0).getTotalTime() == compiled.get(0).getCodeSectionTime() + compiled.get(0).getParseTime() + compiled.get(0).getLinkTime()
+        rendered.size() == 1
+        rendered.get(0).getOutputLength() == text.length()
+        rendered.get(0).getTernaryCount() == 1
+        rendered.get(0).getMatchingCount() == 1
+        rendered.get(0).getInjectionCount() == 2
+        rendered.get(0).getAnchoredObjectCount() == 1
+        rendered.get(0).getRenderTime() >= 0
+    }
+
+    def "should aggregate counters and latencies, including cache hits"() {
+        given:
+        MetricsAggregator aggregator = new MetricsAggregator()
+        Wordplay wordplay = new WordplayImpl(new ScriptCache(10), aggregator)
+        WordplayContext context = new WordplayContext().inject("gate", "gate")
+
+        when:
+        10.times { wordplay.process(SCRIPT, context) }
+        wordplay.render(wordplay.compile("other", "Short."), context, new StringWriter())
+
+        then:
+        aggregator.getCompileCount() == 2
+        aggregator.getCachedCompileCount() == 9
+        aggregator.getRenderCount() == 11
+        aggregator.getTernaryCount() == 10
+        aggregator.getInjectionCount() == 10
+        aggregator.getOutputLength() == 10 * "The old guard is asleep in the void, glowing.".length() + "Short.".length()
+        aggregator.getCompileLatency().getCount() == 2
+        aggregator.getRenderLatency().getCount() == 11
+        aggregator.getRenderLatency().getPercentile(50) <= aggregator.getRenderLatency().getMax()
+
+        when:
+        aggregator.reset()
+
+        then:
+        aggregator.getRenderCount() == 0
+        aggregator.getRenderLatency().getCount() == 0
+    }
+
+    def "should estimate percentiles within the precision of the buckets"() {
+        given:
+        LatencyHistogram histogram = new LatencyHistogram()
+
+        when:
+        (1..1000).each { histogram.record(it * 1000L) }
+
+        then:
+        histogram.getCount() == 1000
+        histogram.getMax() == 1000000
+        histogram.getMean() == 500500
+        Math.abs(histogram.getPercentile(50) - 500000) <= 500000 / 8
+        Math.abs(histogram.getPercentile(99) - 990000) <= 990000 / 8
+        histogram.getPercentile(100) == 1000000
+        new LatencyHistogram().getPercentile(50) == 0
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import com.github.rskupnik.wordplay.internal.compiler.DataParser
+import spock.lang.Specification
+import spock.lang.Timeout
+import spock.lang.Unroll
+
+class WordplayParsingTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    def setup() {
+        wordplay.reset()
+    }
+
+    @Unroll
+    def "should leave text that is not an expression untouched: #_text_"() {
+        when:
+        WordplayOutput output = wordplay.process(_text_)
+
+        then:
+        output.getText() == _text_
+
+        where:
+        _text_ << [
+                "{ not an expression }",
+                "{weather ? sunny }",
+                "{weather:sunny sunny }",
+                "{> }",
+                "{<  text}",
+                "{ unclosed ? one | two",
+                "closed } twice }",
+                "{}"
+        ]
+    }
+
+    def "should resolve expressions inside text that is not an expression"() {
+        given:
+        String input = "{ the weather was {sunny ? sunny | rainy} }"
+
+        when:
+        wordplay.setVariable("sunny", true)
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        output.getText() == "{ the weather was sunny }"
+    }
+
+    def "should resolve deeply nested ternary expressions"() {
+        given:
+        int depth = 500
+        String input = ("{a ? x" * depth) + ("| y}" * depth)
+
+        when:
+        wordplay.setVariable("a", true)
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        output.getText() == "x" * depth
+    }
+
+    @Timeout(5)
+    def "should parse a long line full of unclosed braces in linear time"() {
+        given:
+        String input = "{a ? {b:c one {< x:y two | " * 20000
+
+        when:
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        output.getText() == input
+    }
+
+    @Timeout(5)
+    def "should parse a ternary expression with many separators in linear time"() {
+        given:
+        String input = "{a ? " + "x | " * 100000 + "y}"
+
+        when:
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        output.getText() == "y"
+    }
+
+    @Timeout(5)
+    def "should parse a long line with many expressions in linear time"() {
+        given:
+        String input = "It was {day ? a day | a night} and {weather:sunny sunny |:rainy rainy | fine}. " * 20000
+
+        when:
+        wordplay.setVariable("day", true)
+        wordplay.setVariable("weather", "rainy")
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        output.getText() == "It was a day and rainy. " * 20000
+    }
+
+    @Timeout(5)
+    def "should parse malformed nested matchings in linear time"() {
+        given:
+        String input = ("{a:b x " * k + "| y |:c z}" * k) * 4
+
+        when:
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        output.getText() == input
+
+        where:
+        k << [24, 200, 500]
+    }
+
+    @Timeout(5)
+    def "should keep expressions nested too deep as text"() {
+        given:
+        int depth = 2000
+        String input = "{a ? " * depth + "deep" + " | no}" * depth
+        int left = depth - DataParser.MAX_DEPTH
+
+        when:
+        wordplay.setVariable("a", true)
+        WordplayOutput output = wordplay.process(input)
+
+        then:
+        output.getText() == "{a ? " * left + "deep" + " | no}" * left
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException
+import com.github.rskupnik.wordplay.internal.tree.LiteralNode
+import com.github.rskupnik.wordplay.internal.tree.ReferenceCollector
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import spock.lang.Specification
+
+class WordplayPartialEvaluationTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    def "should fold the static values and leave the rest"() {
+        given:
+        CompiledScript script = wordplay.compile("Welcome to {> world}. {> item} lies here. " +
+                "The door is {door_open ? open | closed}, {> player} looks {mood:happy happy | sad}.")
+        WordplayContext staticValues = new WordplayContext()
+                .inject("world", "Arda")
+                .inject("item", "A {shiny ? shiny | dull} sword")
+                .setVariable("shiny", true)
+
+        when:
+        CompiledScript residual = wordplay.partiallyEvaluate(script, staticValues)
+        ReferenceCollector references = ReferenceCollector.collect(residual.getRoot())
+        WordplayContext context = new WordplayContext()
+                .setVariable("door_open", true)
+                .setVariable("mood", "happy")
+                .inject("player", "Frodo")
+
+        then:
+        references.getInjections() == ["player"] as Set
+        references.getBooleanVariables() == ["door_open"] as Set
+        references.getVariables() == ["mood"] as Set
+        wordplay.render(residual, context).getText() ==
+                "Welcome to Arda. A shiny sword lies here. The door is open, Frodo looks happy."
+    }
+
+    def "should fold a script depending only on static values into text"() {
+        given:
+        CompiledScript script = wordplay.compile("The sky was {> sky}, {night ? dark | bright}.\n" +
+                "\$\n" +
+                "> sky {weather:rain grey | blue}")
+        WordplayContext staticValues = new WordplayContext().setVariable("weather", "rain").setVariable("night", false)
+
+        when:
+        CompiledScript residual = wordplay.partiallyEvaluate(script, staticValues)
+
+        then:
+        residual.getRoot() instanceof LiteralNode
+        wordplay.render(residual, new WordplayContext()).getText() == "The sky was grey, bright."
+    }
+
+    def "should keep anchored objects"() {
+        given:
+        CompiledScript script = wordplay.compile("In {> world} {< effect:glow {> hero}} waits {late ? long | }.")
+        WordplayContext staticValues = new WordplayContext().inject("world", "the town of Bree").inject("hero", "the ranger")
+
+        when:
+        WordplayOutput output = wordplay.render(wordplay.partiallyEvaluate(script, staticValues), new WordplayContext())
+
+        then:
+        output.getText() == "In the town of Bree the ranger waits ."
+        output.getAnchoredObjects().size() == 1
+        output.getAnchoredObjects()[0].getText() == "the ranger"
+        output.getAnchoredObjects()[0].getPosition() == 20
+        output.getAnchoredObjects()[0].getStringParam("effect") == "glow"
+    }
+
+    def "should reject static injections referring to each other in a cycle"() {
+        given:
+        CompiledScript script = wordplay.compile("It's {> a}.")
+
+        when:
+        wordplay.partiallyEvaluate(script, new WordplayContext().inject("a", "{> b}").inject("b", "{> a}"))
+
+        then:
+        thrown(WordplayInjectionException)
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import spock.lang.Specification
+
+class WordplayPrecomputeTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    def "should render every variant the same as a normal render"() {
+        given:
+        CompiledScript script = wordplay.compile("The door is {door_open ? open | closed}, " +
+                "{light ? {< effect:glow it's bright} | it's dark}{alarm ? , an alarm rings | }.")
+        PrecomputedScript precomputed = PrecomputedScript.precompute(script)
+        List<String> variables = ["door_open", "light", "alarm"]
+
+        expect:
+        precomputed.isPrecomputed()
+        precomputed.getVariables() == variables
+        (0..<8).every { int mask ->
+            WordplayContext context = new WordplayContext()
+            (0..<3).each { int bit -> if (mask & 1 << bit) context.setVariable(variables[bit], true) }
+            def expected = wordplay.render(script, context)
+            def actual = precomputed.render(context)
+            actual.getText() == expected.getText() &&
+                    actual.getAnchoredObjects()*.getPosition() == expected.getAnchoredObjects()*.getPosition() &&
+                    actual.getAnchoredObjects()*.getParameters() == expected.getAnchoredObjects()*.getParameters()
+        }
+    }
+
+    def "should store variants that render the same once"() {
+        given:
+        CompiledScript script = wordplay.compile("{a ? {b ? both | a only} | {b ? b only | none}}{c ? | }")
+        PrecomputedScript precomputed = PrecomputedScript.precompute(script)
+
+        when:
+        WordplayContext context = new WordplayContext(new VariableLayout()).setVariable("c", true).setVariable("b", true)
+
+        then:
+        precomputed.getVariantCount() == 4
+        precomputed.render(context).getText() == "b only"
+        precomputed.render(new WordplayContext().setVariable("a", true).setVariable("b", false)).getText() == "a only"
+    }
+
+    def "should render normally what can't be precomputed"() {
+        given:
+        PrecomputedScript precomputed = PrecomputedScript.precompute(wordplay.compile(input), maxBytes)
+
+        expect:
+        !precomputed.isPrecomputed()
+        precomputed.getVariantCount() == 0
+        precomputed.render(new WordplayContext().setVariable("a", true).setVariable("w", "x").inject("n", "B"))
+                .getText() == output
+
+        where:
+        input                                          | maxBytes                             || output
+        "{a ? A | -} {w:x X | -}"                      | PrecomputedScript.DEFAULT_MAX_BYTES  || "A X"
+        "{a ? A | -} {> n}"                            | PrecomputedScript.DEFAULT_MAX_BYTES  || "A B"
+        "{a ? A | -} {b ? B | -} {c ? C | -}"          | 64                                   || "A - -"
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.exceptions.WordplayInjectionException
+import com.github.rskupnik.wordplay.output.AnchoredObject
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import spock.lang.Specification
+
+class WordplayRenderSessionTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    def "should only re-render the segments that depend on what changed"() {
+        given:
+        CompiledScript script = wordplay.compile("The door is {door_open ? open | closed}, " +
+                "the {zone:forest trees |:town houses | void} are quiet and {light ? it's bright | it's dark}.")
+        WordplayContext context = new WordplayContext().setVariable("zone", "town")
+        RenderSession session = new RenderSession(script, context)
+
+        when:
+        WordplayOutput first = session.render()
+
+        then:
+        first.getText() == "The door is closed, the houses are quiet and it's dark."
+        session.getReusedSegmentCount() == 0
+
+        when:
+        context.setVariable("door_open", true)
+        WordplayOutput second = session.render()
+
+        then:
+        second.getText() == "The door is open, the houses are quiet and it's dark."
+        session.getReusedSegmentCount() == session.getSegmentCount() - 1
+        second.getText() == wordplay.render(script, context).getText()
+    }
+
+    def "should return the previous output when nothing changed"() {
+        given:
+        CompiledScript script = wordplay.compile("It is {sunny ? sunny | rainy}.")
+        WordplayContext context = new WordplayContext().setVariable("sunny", true)
+        RenderSession session = new RenderSession(script, context)
+        WordplayOutput first = session.render()
+
+        when:
+        context.setVariable("unrelated", false)
+        WordplayOutput second = session.render()
+
+        then:
+        second.is(first)
+        session.getReusedSegmentCount() == session.getSegmentCount()
+    }
+
+    def "should not re-render when only a variable in a branch that wasn't taken changed"() {
+        given:
+        CompiledScript script = wordplay.compile("{outside ? It's {sunny ? sunny | rainy}. | It's cozy.}")
+        WordplayContext context = new WordplayContext().setVariable("outside", false)
+        RenderSession session = new RenderSession(script, context)
+        session.render()
+
+        when:
+        context.setVariable("sunny", true)
+        WordplayOutput output = session.render()
+
+        then:
+        output.getText() == "It's cozy."
+        session.getReusedSegmentCount() == 1
+    }
+
+    def "should shift the anchored objects that come after a changed segment"() {
+        given:
+        CompiledScript script = wordplay.compile("A {long ? very, very long | short} text with " +
+                "{< effect:vibrate|tint:blue vibrating} letters.")
+        WordplayContext context = new WordplayContext()
+        RenderSession session = new RenderSession(script, context)
+        session.render()
+
+        when:
+        context.setVariable("long", true)
+        WordplayOutput output = session.render()
+
+        then:
+        output.getText() == "A very, very long text with vibrating letters."
+        AnchoredObject anchoredObject = output.getAnchoredObjects().get(0)
+        anchoredObject.getPosition() == output.getText().indexOf("vibrating")
+        anchoredObject.getStringParam("tint") == "blue"
+    }
+
+    def "should notice changes in the variables read by injected values"() {
+        given:
+        CompiledScript script = wordplay.compile("The {> person} waves.")
+        WordplayContext context = new WordplayContext().inject("person", "{old ? old | young} guard")
+        RenderSession session = new RenderSession(script, context)
+        session.render()
+
+        when:
+        context.setVariable("old", true)
+
+        then:
+        session.render().getText() == "The old guard waves."
+
+        when:
+        context.inject("person", "farmer")
+
+        then:
+        session.render().getText() == "The farmer waves."
+    }
+
+    def "should notice a variable named at render time being set for the first time"() {
+        given:
+        CompiledScript script = wordplay.compile("The {> room} is {lit_{> room} ? lit | dark}.")
+        WordplayContext context = new WordplayContext().inject("room", "hall")
+        RenderSession session = new RenderSession(script, context)
+
+        when:
+        WordplayOutput first = session.render()
+        context.setVariable("lit_hall", true)
+        WordplayOutput second = session.render()
+
+        then:
+        first.getText() == "The hall is dark."
+        second.getText() == "The hall is lit."
+    }
+
+    def "should split a scene wrapped in an internal injection into segments"() {
+        given:
+        CompiledScript script = wordplay.compile("{> scene}\n" +
+                "\$\n" +
+                "> scene The door is {door_open ? open | closed} and {light ? it's bright | it's dark}.")
+        WordplayContext context = new WordplayContext()
+        RenderSession session = new RenderSession(script, context)
+        session.render()
+
+        when:
+        context.setVariable("light", true)
+        WordplayOutput output = session.render()
+
+        then:
+        output.getText() == "The door is closed and it's bright."
+        session.getSegmentCount() > 1
+        session.getReusedSegmentCount() == session.getSegmentCount() - 1
+    }
+
+    def "should render a scene that is a single expression as one segment"() {
+        given:
+        CompiledScript script = wordplay.compile("{night ? The {owl ? owl | wind} calls. | The sun shines.}")
+        WordplayContext context = new WordplayContext().setVariable("night", true)
+        RenderSession session = new RenderSession(script, context)
+
+        when:
+        WordplayOutput first = session.render()
+        context.setVariable("owl", true)
+        WordplayOutput second = session.render()
+
+        then:
+        session.getSegmentCount() == 1
+        session.getReusedSegmentCount() == 0
+        first.getText() == "The wind calls."
+        second.getText() == "The owl calls."
+    }
+
+    def "should stay usable after a failed render"() {
+        given:
+        CompiledScript script = wordplay.compile("Hello, {> name}!")
+        WordplayContext context = new WordplayContext().inject("name", "stranger")
+        RenderSession session = new RenderSession(script, context)
+        session.render()
+
+        when:
+        context.inject("name", "")
+        session.render()
+
+        then:
+        thrown(WordplayInjectionException)
+
+        when:
+        context.inject("name", "traveller")
+
+        then:
+        session.render().getText() == "Hello, traveller!"
+    }
+}
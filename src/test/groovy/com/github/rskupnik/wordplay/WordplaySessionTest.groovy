@@ -0,0 +1,205 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.session.SessionStore
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class WordplaySessionTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+    private final String input = "The door is {door_open ? open | closed}, {weather:sunny sunny |:rain rainy | calm}. {> man} waits."
+
+    def "should restore a snapshot with another layout"() {
+        given:
+        WordplayContext context = new WordplayContext()
+                .setVariable("door_open", true)
+                .setVariable("weather", "rain")
+                .inject("man", "tired, old man")
+
+        when:
+        byte[] snapshot = context.snapshot()
+        WordplayContext restored = new WordplayContext(new VariableLayout()).apply(snapshot)
+
+        then:
+        restored.getBooleanVariable("door_open")
+        restored.getVariable("weather") == "rain"
+        wordplay.process(input, restored).getText() == wordplay.process(input, context).getText()
+        !restored.hasChanges()
+    }
+
+    def "should save only the changes in a delta"() {
+        given:
+        WordplayContext context = new WordplayContext()
+                .setVariable("door_open", true)
+                .setVariable("weather", "rain")
+                .inject("man", "tired, old man")
+        byte[] snapshot = context.snapshot()
+
+        when:
+        context.setVariable("weather", "sunny")
+        byte[] delta = context.delta()
+        WordplayContext restored = new WordplayContext().apply(snapshot).apply(delta)
+
+        then:
+        delta.length < snapshot.length
+        restored.getVariable("weather") == "sunny"
+        restored.getBooleanVariable("door_open")
+        wordplay.process(input, restored).getText() == "The door is open, sunny. tired, old man waits."
+    }
+
+    def "should carry a reset over in a delta"() {
+        given:
+        WordplayContext context = new WordplayContext().setVariable("door_open", true).inject("man", "guard")
+        byte[] snapshot = context.snapshot()
+
+        when:
+        context.reset()
+        context.setVariable("weather", "sunny")
+        byte[] delta = context.delta()
+        WordplayContext restored = new WordplayContext().apply(snapshot).apply(delta)
+
+        then:
+        restored.getBooleanVariable("door_open") == null
+        restored.getInjection("man") == null
+        restored.getVariable("weather") == "sunny"
+    }
+
+    @Unroll
+    def "should reject malformed state: #bytes"() {
+        when:
+        new WordplayContext().apply(bytes as byte[])
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        bytes << [[9], [1, 1], [1, 1, 5, 65]]
+    }
+
+    @Unroll
+    def "should store sessions (off heap: #offHeap)"() {
+        given:
+        SessionStore store = new SessionStore(offHeap)
+        VariableLayout layout = new VariableLayout()
+        WordplayContext context = new WordplayContext(layout).setVariable("door_open", false).inject("man", "guard")
+
+        when:
+        store.save("player-1", context)
+        context.setVariable("door_open", true)
+        store.saveChanges("player-1", context)
+        WordplayContext loaded = store.load("player-1", layout)
+
+        then:
+        store.contains("player-1")
+        store.size() == 1
+        store.getByteCount() > 0
+        wordplay.process(input, loaded).getText() == "The door is open, calm. guard waits."
+
+        when:
+        WordplayContext taken = store.take("player-1", layout)
+
+        then:
+        taken.getBooleanVariable("door_open")
+        !store.contains("player-1")
+        store.getByteCount() == 0
+        store.load("player-1", layout) == null
+
+        where:
+        offHeap << [false, true]
+    }
+
+    def "should compact sessions once the changes outgrow the snapshot"() {
+        given:
+        SessionStore store = new SessionStore()
+        WordplayContext context = new WordplayContext().setVariable("weather", "rain")
+        store.save("player", context)
+        long snapshotBytes = store.getByteCount()
+
+        when:
+        (0..<100).each { int i ->
+            context.setVariable("weather", "rain " + i)
+            store.saveChanges("player", context)
+        }
+
+        then:
+        store.getByteCount() <= 3 * snapshotBytes + 16
+        store.load("player", new VariableLayout()).getVariable("weather") == "rain 99"
+    }
+
+    @Unroll
+    def "should keep appending changes in place (off heap: #offHeap)"() {
+        given:
+        SessionStore store = new SessionStore(offHeap)
+        VariableLayout layout = new VariableLayout()
+        WordplayContext context = new WordplayContext(layout)
+        (0..<50).each { int i -> context.setVariable("var_" + i, "value " + i) }
+        store.save("player", context)
+        long snapshotBytes = store.getByteCount()
+
+        when:
+        List<String> loaded = (0..<20).collect { int i ->
+            context.setVariable("var_" + i, "changed " + i)
+            store.saveChanges("player", context)
+            store.load("player", layout).getVariable("var_" + i)
+        }
+
+        then:
+        loaded == (0..<20).collect { int i -> "changed " + i }
+        store.getByteCount() > snapshotBytes
+        store.getByteCount() < 2 * snapshotBytes
+        store.load("player", layout).getVariable("var_0") == "changed 0"
+        store.load("player", layout).getVariable("var_49") == "value 49"
+
+        where:
+        offHeap << [false, true]
+    }
+
+    @Unroll
+    def "should keep sessions in shared slabs and reclaim the room they leave (off heap: #offHeap)"() {
+        given:
+        SessionStore store = new SessionStore(offHeap, 256)
+        VariableLayout layout = new VariableLayout()
+        List<WordplayContext> contexts = (0..<200).collect { int i ->
+            new WordplayContext(layout).setVariable("name", "player " + i).setVariable("gold", "0")
+        }
+
+        when:
+        contexts.eachWithIndex { WordplayContext context, int i -> store.save("p" + i, context) }
+        (1..5).each { int round ->
+            contexts.eachWithIndex { WordplayContext context, int i ->
+                context.setVariable("gold", "" + round * i)
+                store.saveChanges("p" + i, context)
+            }
+        }
+        (0..<150).each { int i -> store.remove("p" + i) }
+        store.save("late", new WordplayContext(layout).setVariable("name", "late"))
+
+        then:
+        (150..<200).every { int i ->
+            WordplayContext loaded = store.load("p" + i, layout)
+            loaded.getVariable("name") == "player " + i && loaded.getVariable("gold") == "" + 5 * i
+        }
+        store.load("late", layout).getVariable("name") == "late"
+        store.getReservedByteCount() <= 4 * store.getByteCount() + 4 * 256
+
+        where:
+        offHeap << [false, true]
+    }
+}
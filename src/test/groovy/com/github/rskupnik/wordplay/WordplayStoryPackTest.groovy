@@ -0,0 +1,141 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.cache.ScriptCache
+import com.github.rskupnik.wordplay.output.MetaMap
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import com.github.rskupnik.wordplay.pack.StoryPack
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Path
+
+class WordplayStoryPackTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+
+    private final List<File> files = []
+
+    def cleanup() {
+        files*.delete()
+    }
+
+    def "should index and render the scenes of a pack"() {
+        given:
+        Path file = pack("Comments before the first scene are ignored.\n" +
+                "#\$ tavern\n" +
+                "The tavern is {busy ? crowded | empty}.\n" +
+                "#\$ forest\n" +
+                "Trees, {> who} and more trees.\n" +
+                "\$\n" +
+                "> who squirrels")
+
+        when:
+        StoryPack storyPack = StoryPack.open(file)
+        WordplayOutput tavern = wordplay.render(storyPack.compile("tavern"), new WordplayContext().setVariable("busy", true))
+        WordplayOutput forest = wordplay.render(storyPack.compile("forest"), new WordplayContext())
+
+        then:
+        storyPack.getSceneIds() as List == ["tavern", "forest"]
+        storyPack.getText("tavern") == "The tavern is {busy ? crowded | empty}."
+        tavern.getText() == "The tavern is crowded."
+        forest.getText() == "Trees, squirrels and more trees."
+    }
+
+    def "should extract the headers of a single scene"() {
+        given:
+        Path file = pack("#\$ first\r\n" +
+                "Text.\r\n" +
+                "\$\r\n" +
+                "<m map key:val\r\n" +
+                "!\$\r\n" +
+                "key1 value1\r\n" +
+                "key2 value2\r\n" +
+                "#\$ second\r\n" +
+                "No headers here.")
+
+        when:
+        StoryPack storyPack = StoryPack.open(file)
+        Map<String, String> headers = storyPack.getHeaders("first")
+        WordplayOutput output = wordplay.render(storyPack.compile("first"), new WordplayContext())
+
+        then:
+        headers == [key1: "value1", key2: "value2"]
+        storyPack.getHeaders("second").isEmpty()
+        storyPack.getText("second") == "No headers here."
+        output.getText() == "Text."
+        ((MetaMap) output.getMetaObjects().get(0)).getString("key") == "val"
+    }
+
+    def "should take a scene from the last pack it's in"() {
+        given:
+        Path base = pack("#\$ intro\nOld intro.\n#\$ outro\nThe end.")
+        Path patch = pack("#\$ intro\nNew intro.")
+
+        when:
+        StoryPack storyPack = StoryPack.open(base, patch)
+
+        then:
+        storyPack.getText("intro") == "New intro."
+        storyPack.getText("outro") == "The end."
+    }
+
+    def "should keep the text outside of ASCII intact"() {
+        given:
+        Path file = pack("#\$ zażółć\nGęślą {loud ? głośno | cicho} jaźń.")
+
+        when:
+        StoryPack storyPack = StoryPack.open(file)
+
+        then:
+        wordplay.render(storyPack.compile("zażółć"), new WordplayContext()).getText() == "Gęślą cicho jaźń."
+    }
+
+    def "should compile a scene only once when given a cache"() {
+        given:
+        ScriptCache scriptCache = new ScriptCache(10)
+        StoryPack storyPack = StoryPack.open(scriptCache, pack("#\$ scene\nOnce."))
+
+        when:
+        CompiledScript first = storyPack.compile("scene")
+        CompiledScript second = storyPack.compile("scene")
+
+        then:
+        first.is(second)
+        scriptCache.stats().getLoadCount() == 1
+    }
+
+    def "should reject unknown scenes"() {
+        given:
+        StoryPack storyPack = StoryPack.open(pack("#\$ scene\nText."))
+
+        when:
+        storyPack.compile("other")
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    private Path pack(String content) {
+        File file = File.createTempFile("wordplay", ".pack")
+        file.setBytes(content.getBytes(StandardCharsets.UTF_8))
+        files.add(file)
+        return file.toPath()
+    }
+}
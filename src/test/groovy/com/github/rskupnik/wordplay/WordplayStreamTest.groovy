@@ -0,0 +1,173 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.exceptions.WordplaySyntaxException
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import com.github.rskupnik.wordplay.stream.StreamProcessor
+import com.github.rskupnik.wordplay.stream.StreamResult
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+import java.nio.channels.ReadableByteChannel
+import java.nio.charset.StandardCharsets
+
+class WordplayStreamTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+    private final WordplayContext context = new WordplayContext()
+            .setVariable("night", true)
+            .setVariable("weather", "rain")
+            .inject("hero", "the ranger")
+
+    @Unroll
+    def "should stream the same output as processing the whole document (buffer: #bufferSize, ending: #ending)"() {
+        given:
+        String input = document(ending)
+        File file = tempFile(input)
+
+        when:
+        StringWriter out = new StringWriter()
+        StreamResult result = new StreamProcessor(bufferSize).process(file.toPath(), context, out)
+        WordplayOutput expected = wordplay.process(input, context)
+
+        then:
+        out.toString() == expected.getText()
+        result.getLength() == expected.getText().length()
+        result.getAnchoredObjects()*.getPosition() == expected.getAnchoredObjects()*.getPosition()
+        result.getAnchoredObjects()*.getText() == expected.getAnchoredObjects()*.getText()
+        result.getMetaObjects()*.getId() == expected.getMetaObjects()*.getId()
+        result.getHeaders() == wordplay.extractHeaders(input)
+        result.getHeaders() == [chapter: "one", author: "someone"]
+
+        cleanup:
+        file.delete()
+
+        where:
+        bufferSize | ending
+        16         | "\n"
+        100        | "\n"
+        8192       | "\n"
+        17         | "\r\n"
+    }
+
+    def "should stream from a reader and from a channel that can't seek"() {
+        given:
+        String input = document("\n")
+        String expected = wordplay.process(input, context).getText()
+        StreamProcessor processor = new StreamProcessor(32)
+
+        when:
+        StringWriter fromReader = new StringWriter()
+        processor.process(new StringReader(input), context, fromReader)
+        StringWriter fromChannel = new StringWriter()
+        processor.process(channel(input.getBytes(StandardCharsets.UTF_8)), context, fromChannel)
+
+        then:
+        fromReader.toString() == expected
+        fromChannel.toString() == expected
+    }
+
+    @Unroll
+    def "should stream documents without sections or with unmatched braces: #input"() {
+        given:
+        File file = tempFile(input)
+
+        when:
+        StringWriter out = new StringWriter()
+        new StreamProcessor(16).process(file.toPath(), context, out)
+
+        then:
+        out.toString() == wordplay.process(input, context).getText()
+
+        cleanup:
+        file.delete()
+
+        where:
+        input << [
+                "",
+                "Just text, żółw and all, long enough to be split into a few pieces.",
+                "A { stray brace and {night ? a night | a day}, with } another one and {weather:rain rain | sun}.",
+                "Never {night ? closed | at all, {> hero} waits",
+                "Only headers.\n!\$\nkey value"
+        ]
+    }
+
+    @Unroll
+    def "should start the code section at the first line with just a \$ (stream: #stream)"() {
+        given:
+        String input = "Early {> a} end.\n\$\n" + "> a long code section to be scanned past\n" * 8 + "\$\n> b late\n!\$\nkey value"
+        File file = tempFile(input)
+
+        when:
+        if (stream)
+            new StreamProcessor(16).process(file.toPath(), context, new StringWriter())
+        else
+            wordplay.process(input, context)
+
+        then:
+        thrown(WordplaySyntaxException)
+
+        cleanup:
+        file.delete()
+
+        where:
+        stream << [false, true]
+    }
+
+    private static String document(String ending) {
+        StringBuilder sb = new StringBuilder()
+        200.times { int i ->
+            sb.append("Chapter ").append(i).append(": it's {night ? a dark night | a bright day} and ")
+                    .append("{weather:rain it rains | the sky is clear}. {< effect:glow {> hero}} walks {> place}.")
+                    .append(ending)
+        }
+        sb.append("\$").append(ending)
+                .append("> place to the {night ? inn | market}").append(ending)
+                .append("<m map key:val|key2:val2").append(ending)
+                .append("!\$").append(ending)
+                .append("chapter one").append(ending)
+                .append("author someone")
+        return sb.toString()
+    }
+
+    private static ReadableByteChannel channel(byte[] bytes) {
+        int position = 0
+        return new ReadableByteChannel() {
+            int read(ByteBuffer buffer) {
+                if (position == bytes.length)
+                    return -1
+                int length = Math.min(buffer.remaining(), Math.min(7, bytes.length - position))
+                buffer.put(bytes, position, length)
+                position += length
+                return length
+            }
+
+            boolean isOpen() { true }
+
+            void close() {}
+        }
+    }
+
+    private static File tempFile(String content) {
+        File file = File.createTempFile("wordplay", ".txt")
+        file.setBytes(content.getBytes(StandardCharsets.UTF_8))
+        return file
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ Wordplay - text processing engine for dynamic storytelling
+ Copyright (C) 2017  Radoslaw Skupnik
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.rskupnik.wordplay
+
+import com.github.rskupnik.wordplay.output.TextRope
+import com.github.rskupnik.wordplay.output.WordplayOutput
+import spock.lang.Specification
+
+class WordplayTextRopeTest extends Specification {
+
+    private final Wordplay wordplay = new WordplayImpl()
+    private final String prologue = "It was a long and quiet evening in the valley, nothing moved. "
+    private final String description = "A tall figure in a grey, weathered cloak and a wide-brimmed hat"
+
+    def "should keep the rendered text as shared segments until it's asked for"() {
+        given:
+        CompiledScript script = wordplay.compile(prologue + "Then {night ? the stars came out | the sun set}. {> stranger} entered.")
+
+        when:
+        WordplayOutput output = wordplay.render(script, new WordplayContext().setVariable("night", true).inject("stranger", description))
+        CharSequence text = output.getTextSequence()
+        String expected = prologue + "Then the stars came out. " + description + " entered."
+
+        then:
+        text instanceof TextRope
+        ((TextRope) text).getSegmentCount() == 4
+        text.length() == expected.length()
+        (0..<expected.length()).every { int i -> text.charAt(i) == expected.charAt(i) }
+        output.getText() == expected
+        output.getText().is(output.getText())
+    }
+
+    def "should slice and write the text without flattening it"() {
+        given:
+        TextRope rope = new TextRope.Builder()
+                .append(prologue)
+                .append("short ")
+                .append('x' as char)
+                .append(description)
+                .append(" end", 1, 4)
+                .build()
+        String expected = prologue + "short x" + description + "end"
+
+        expect:
+        rope.length() == expected.length()
+        rope.getSegmentCount() == 4
+        [[0, 10], [50, 80], [60, expected.length()], [0, expected.length()], [5, 5]].every { List<Integer> range ->
+            rope.subSequence(range[0], range[1]).toString() == expected.substring(range[0], range[1])
+        }
+        rope.subSequence(50, 130) instanceof TextRope
+        write(rope) == expected
+        rope.toString() == expected
+        rope.subSequence(3, 90).toString() == expected.substring(3, 90)
+    }
+
+    def "should point anchored objects at the right part of the rope"() {
+        given:
+        WordplayOutput output = wordplay.process(prologue + "{< effect:glow " + description + "} waits.")
+
+        when:
+        def anchored = output.getAnchoredObjects()[0]
+        CharSequence text = output.getTextSequence()
+
+        then:
+        text.subSequence(anchored.getPosition(), anchored.getPosition() + anchored.getText().length()).toString() == anchored.getText()
+        anchored.getText() == description
+    }
+
+    def "should read appended text back from the builder"() {
+        given:
+        TextRope.Builder builder = new TextRope.Builder()
+                .append(prologue)
+                .append("short ")
+                .append(description)
+                .append(" tail")
+        String expected = prologue + "short " + description + " tail"
+
+        expect:
+        [[0, 10], [0, prologue.length()], [50, 80], [60, expected.length()], [expected.length() - 3, expected.length()], [5, 5]].every { List<Integer> range ->
+            builder.substring(range[0], range[1]) == expected.substring(range[0], range[1])
+        }
+        builder.substring(0, prologue.length()).is(prologue)
+    }
+
+    def "should slice nested anchored objects out of the rope"() {
+        given:
+        WordplayOutput output = wordplay.process("Hi {< outer:a " + prologue + "{< inner:b " + description + "} and} done")
+
+        when:
+        def outer = output.getAnchoredObjects()[0]
+        def inner = output.getAnchoredObjects()[1]
+
+        then:
+        outer.getText() == prologue + description + " and"
+        inner.getText() == description
+        output.getText().substring(inner.getPosition(), inner.getPosition() + description.length()) == description
+    }
+
+    def "should fail outside of the text"() {
+        when:
+        new TextRope.Builder().append(prologue).build().charAt(prologue.length())
+
+        then:
+        thrown(IndexOutOfBoundsException)
+    }
+
+    private static String write(TextRope rope) {
+        StringWriter out = new StringWriter()
+        rope.writeTo(out)
+        return out.toString()
+    }
+}